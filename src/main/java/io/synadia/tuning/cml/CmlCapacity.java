@@ -0,0 +1,227 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import io.synadia.utils.PropertyUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static io.synadia.utils.ArgumentUtils.*;
+import static io.synadia.utils.Debug.format3;
+import static io.synadia.utils.Debug.log;
+import static io.synadia.utils.MiscUtils.sleep;
+
+/**
+ * Finds the highest tps the sender to queue group receivers path sustains under an SLO, for each payload size.
+ * Every probe is a CoreMessageLoss soak without outages at one tps: a warmup that isn't measured,
+ * then the steady state that is, then a back off so the next probe starts with a drained cluster.
+ * A probe passes when the steady state had no more slow consumers than allowed, no receiver disconnects,
+ * a p99 latency from the intended send time under the ceiling, an outgoing queue that stayed under the threshold
+ * and no missing messages.
+ * The tps is binary searched between the min and the max until the step is below the resolution.
+ */
+public class CmlCapacity {
+    private static final String LABEL = "CAPACITY";
+
+    private static final String KEY_PROPS = "props";
+    private static final String[] KEYS_FAULTS = new String[]{"faults", "f"};
+    private static final String[] KEYS_PAYLOAD_SIZES = new String[]{"capacity.payload.sizes", "cps"};
+    private static final String[] KEYS_MIN_TPS = new String[]{"capacity.min.tps", "cmin"};
+    private static final String[] KEYS_MAX_TPS = new String[]{"capacity.max.tps", "cmax"};
+    private static final String[] KEYS_RESOLUTION_TPS = new String[]{"capacity.resolution.tps", "cres"};
+    private static final String[] KEYS_WARMUP_MILLIS = new String[]{"capacity.warmup.millis", "cw"};
+    private static final String[] KEYS_MEASURE_MILLIS = new String[]{"capacity.measure.millis", "cm"};
+    private static final String[] KEYS_BACKOFF_MILLIS = new String[]{"capacity.backoff.millis", "cb"};
+    private static final String[] KEYS_SLO_P99_MILLIS = new String[]{"slo.p99.millis", "sp99"};
+    private static final String[] KEYS_SLO_SLOW_CONSUMERS = new String[]{"slo.slow.consumers", "ssc"};
+    private static final String[] KEYS_SLO_OUTGOING_QUEUE = new String[]{"slo.outgoing.queue", "soq"};
+
+    // arguments
+    final String[] args;
+    final List<String> payloadSizes;
+    final int minTps;
+    final int maxTps;
+    final int resolutionTps;
+    final long warmupMillis;
+    final long measureMillis;
+    final long backoffMillis;
+    final long sloP99Millis;
+    final long sloSlowConsumers;
+    final long sloOutgoingQueue;
+
+    public static void main(String[] args) throws Exception {
+        new CmlCapacity(args).run();
+    }
+
+    public CmlCapacity(String[] args) throws Exception {
+        this.args = args;
+        String propsFile = getArg(args, "cml.application.properties", KEY_PROPS);
+        Properties props = PropertyUtils.loadProperties(propsFile);
+
+        String _payloadSizes = getProperty(props, getProperty(props, "12ki", "payload.size"), KEYS_PAYLOAD_SIZES[0]);
+        int _minTps = getIntProperty(props, 1000, KEYS_MIN_TPS[0]);
+        int _maxTps = getIntProperty(props, 500_000, KEYS_MAX_TPS[0]);
+        int _resolutionTps = getIntProperty(props, 1000, KEYS_RESOLUTION_TPS[0]);
+        long _warmupMillis = getLongProperty(props, 5000, KEYS_WARMUP_MILLIS[0]);
+        long _measureMillis = getLongProperty(props, 15000, KEYS_MEASURE_MILLIS[0]);
+        long _backoffMillis = getLongProperty(props, 5000, KEYS_BACKOFF_MILLIS[0]);
+        long _sloP99Millis = getLongProperty(props, 10, KEYS_SLO_P99_MILLIS[0]);
+        long _sloSlowConsumers = getLongProperty(props, 0, KEYS_SLO_SLOW_CONSUMERS[0]);
+        long _sloOutgoingQueue = getLongProperty(props, 1000, KEYS_SLO_OUTGOING_QUEUE[0]);
+        String _faults = getProperty(props, "", KEYS_FAULTS[0]);
+
+        // command line takes precedent if present
+        _payloadSizes = getArg(args, _payloadSizes, KEYS_PAYLOAD_SIZES);
+        _minTps = getIntArg(args, _minTps, KEYS_MIN_TPS);
+        _maxTps = getIntArg(args, _maxTps, KEYS_MAX_TPS);
+        _resolutionTps = getIntArg(args, _resolutionTps, KEYS_RESOLUTION_TPS);
+        _warmupMillis = getLongArg(args, _warmupMillis, KEYS_WARMUP_MILLIS);
+        _measureMillis = getLongArg(args, _measureMillis, KEYS_MEASURE_MILLIS);
+        _backoffMillis = getLongArg(args, _backoffMillis, KEYS_BACKOFF_MILLIS);
+        _sloP99Millis = getLongArg(args, _sloP99Millis, KEYS_SLO_P99_MILLIS);
+        _sloSlowConsumers = getLongArg(args, _sloSlowConsumers, KEYS_SLO_SLOW_CONSUMERS);
+        _sloOutgoingQueue = getLongArg(args, _sloOutgoingQueue, KEYS_SLO_OUTGOING_QUEUE);
+        _faults = getArg(args, _faults, KEYS_FAULTS);
+
+        //noinspection DataFlowIssue
+        if (!_faults.trim().isEmpty()) {
+            throw new IllegalArgumentException("Capacity is measured without outages, remove the faults setting.");
+        }
+        //noinspection DataFlowIssue
+        payloadSizes = Arrays.asList(_payloadSizes.split(","));
+        minTps = Math.max(1, _minTps);
+        maxTps = Math.max(minTps, _maxTps);
+        resolutionTps = Math.max(1, _resolutionTps);
+        warmupMillis = _warmupMillis;
+        measureMillis = _measureMillis;
+        backoffMillis = _backoffMillis;
+        sloP99Millis = _sloP99Millis;
+        sloSlowConsumers = _sloSlowConsumers;
+        sloOutgoingQueue = _sloOutgoingQueue;
+
+        log(LABEL, "----- Capacity Options -----");
+        log(LABEL, "Payload Sizes", payloadSizes);
+        log(LABEL, "Min / Max / Resolution TPS: %s / %s / %s", minTps, maxTps, resolutionTps);
+        log(LABEL, "Warmup / Measure / Backoff Millis: %s / %s / %s", warmupMillis, measureMillis, backoffMillis);
+        log(LABEL, "SLO p99 Millis", sloP99Millis);
+        log(LABEL, "SLO Slow Consumers", sloSlowConsumers);
+        log(LABEL, "SLO Outgoing Queue", sloOutgoingQueue);
+    }
+
+    public void run() {
+        List<CmlResult> capacities = new ArrayList<>();
+        for (String payloadSize : payloadSizes) {
+            capacities.add(find(payloadSize.trim()));
+        }
+
+        System.out.println("\nCAPACITY");
+        System.out.println(sloString());
+        System.out.println("  Payload  Capacity/sec      Bytes/sec   p99 ms  Max Out Queue");
+        for (int ix = 0; ix < payloadSizes.size(); ix++) {
+            CmlResult r = capacities.get(ix);
+            if (r == null) {
+                System.out.println("  " + String.format("%7s", payloadSizes.get(ix).trim()) + "  below the min tps of " + format(minTps));
+                continue;
+            }
+            System.out.println("  "
+                + formatRight(r.payloadSize, 7) + " "
+                + formatRight(r.targetTps, 13) + " "
+                + formatRight((long)r.targetTps * r.payloadSize, 14) + " "
+                + String.format("%8s", format3(r.p99 / 1_000_000.0)) + " "
+                + formatRight(r.maxOutgoingPending, 14)
+                + (r.targetTps == maxTps ? "  (the max tps, capacity may be higher)" : ""));
+        }
+    }
+
+    /**
+     * @return the passing probe with the highest tps, or null if even the min tps fails
+     */
+    private CmlResult find(String payloadSize) {
+        log(LABEL, "----- Payload Size %s -----", payloadSize);
+        CmlResult best = probe(payloadSize, minTps);
+        if (best == null) {
+            return null;
+        }
+        CmlResult atMax = probe(payloadSize, maxTps);
+        if (atMax != null) {
+            return atMax;
+        }
+        int pass = minTps;
+        int fail = maxTps;
+        while (fail - pass > resolutionTps) {
+            int tps = pass + (fail - pass) / 2;
+            CmlResult r = probe(payloadSize, tps);
+            if (r == null) {
+                fail = tps;
+            }
+            else {
+                pass = tps;
+                best = r;
+            }
+        }
+        log(LABEL, "Payload Size %s Capacity %s msgs/sec", payloadSize, format(pass));
+        return best;
+    }
+
+    /**
+     * @return the result if the probe met the SLO, null if it did not
+     */
+    private CmlResult probe(String payloadSize, int tps) {
+        List<String> probeArgs = new ArrayList<>();
+        // overrides go first, the first match of a key on the command line wins
+        probeArgs.add("payload.size=" + payloadSize);
+        probeArgs.add("tps=" + tps);
+        probeArgs.add("soak.millis=" + (warmupMillis + measureMillis));
+        probeArgs.add("warmup.millis=" + warmupMillis);
+        probeArgs.addAll(Arrays.asList(args));
+
+        log(LABEL, "Probe Payload Size %s at %s msgs/sec", payloadSize, format(tps));
+        String violation;
+        CmlResult r = null;
+        try {
+            r = new CoreMessageLoss(probeArgs.toArray(new String[0])).run();
+            violation = violation(r);
+        }
+        catch (Exception e) {
+            violation = "probe failed: " + e;
+        }
+        if (violation == null) {
+            log(LABEL, "Probe Passed at %s msgs/sec, p99 %s ms, max outgoing queue %s",
+                format(tps), format3(r.p99 / 1_000_000.0), r.maxOutgoingPending);
+        }
+        else {
+            log(LABEL, "Probe Failed at %s msgs/sec, %s", format(tps), violation);
+        }
+        sleep(backoffMillis);
+        return violation == null ? r : null;
+    }
+
+    private String violation(CmlResult r) {
+        if (r.slowConsumers > sloSlowConsumers) {
+            return "slow consumers " + r.slowConsumers;
+        }
+        if (r.receiverDisconnects > 0) {
+            return "receiver disconnects " + r.receiverDisconnects;
+        }
+        if (r.p99 > sloP99Millis * 1_000_000) {
+            return "p99 " + format3(r.p99 / 1_000_000.0) + " ms";
+        }
+        if (r.maxOutgoingPending > sloOutgoingQueue) {
+            return "outgoing queue " + r.maxOutgoingPending;
+        }
+        if (r.missing > 0) {
+            return "missing messages " + r.missing; // without an outage nothing should be lost
+        }
+        return null;
+    }
+
+    private String sloString() {
+        return "  SLO: slow consumers <= " + sloSlowConsumers
+            + ", no receiver disconnects, p99 <= " + sloP99Millis + " ms"
+            + ", outgoing queue <= " + sloOutgoingQueue + " messages, no missing messages";
+    }
+}
@@ -18,14 +18,33 @@ public class CmlConnectionListener implements ConnectionListener {
     private final String label;
     private final List<String> servers;
     private final boolean receiver;
+    private final CmlStatsCollector stats;
+    private final CmlTimeline timeline;
 
     public final AtomicBoolean disconnected;
     public final AtomicBoolean reconnected;
 
     public CmlConnectionListener(String labelSuffix, String[] servers, boolean receiver) {
+        this(labelSuffix, servers, receiver, null);
+    }
+
+    /**
+     * @param stats if not null, every disconnect and reconnect starts a new epoch in the stats
+     */
+    public CmlConnectionListener(String labelSuffix, String[] servers, boolean receiver, CmlStatsCollector stats) {
+        this(labelSuffix, servers, receiver, stats, null);
+    }
+
+    /**
+     * @param stats if not null, every disconnect and reconnect starts a new epoch in the stats
+     * @param timeline if not null, every event that is logged is also recorded in the timeline
+     */
+    public CmlConnectionListener(String labelSuffix, String[] servers, boolean receiver, CmlStatsCollector stats, CmlTimeline timeline) {
         this.label = "CL-" + labelSuffix;
         this.servers = Arrays.asList(servers);
         this.receiver = receiver;
+        this.stats = stats;
+        this.timeline = timeline;
         disconnected = new AtomicBoolean(false);
         reconnected = new AtomicBoolean(false);
     }
@@ -45,10 +64,12 @@ public class CmlConnectionListener implements ConnectionListener {
         }
         else if (type == Events.DISCONNECTED) {
             disconnected.set(true);
+            newEpoch(CmlStatsCollector.DISCONNECTED);
             print = true;
         }
         else if (type == Events.RECONNECTED) {
             reconnected.set(true);
+            newEpoch(CmlStatsCollector.RECONNECTED);
             cid = id(conn);
             print = true;
         }
@@ -64,6 +85,19 @@ public class CmlConnectionListener implements ConnectionListener {
             else {
                 Debug.log(label, "%s -> %s @ %s", type.getEvent(), conn.getStatus(), Debug.simpleTime(time), details, cid);
             }
+            if (timeline != null) {
+                timeline.event(label, type.getEvent() + (details == null ? "" : " " + details));
+            }
+        }
+    }
+
+    private void newEpoch(String event) {
+        if (stats != null) {
+            CmlStatsCollector.Epoch ended = stats.newEpoch(event);
+            if (ended.endedByDisconnect()) {
+                Debug.log(label, "Epoch %s ended, buffered but never written: %s messages, %s bytes",
+                    ended.number, ended.strandedMessages(), ended.strandedBytes());
+            }
         }
     }
 }
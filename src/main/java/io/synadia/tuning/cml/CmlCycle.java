@@ -0,0 +1,92 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+/**
+ * One connect / outage cycle of a sender in a soak run. A cycle starts when the sender connects
+ * or reconnects and runs through the next outage up to the next reconnect, so messages lost
+ * in an outage belong to the cycle they were published in.
+ * While the cycle can still receive messages it holds one latency histogram per receiver, made for it.
+ * Once closed, only the summary is kept.
+ */
+public class CmlCycle {
+    public final int number;
+    public final long firstId;
+    public final long startedAt;
+
+    volatile CmlCycle previous;
+    volatile CmlLatency[] latency;
+
+    // set when the next cycle starts or the run ends
+    long lastId;
+    long endedAt;
+
+    // summary, set when closed
+    long received;
+    long missing;
+    long actualP99;
+    long intendedP50;
+    long intendedP99;
+    long intendedP999;
+    long intendedMax;
+
+    CmlCycle(int number, long firstId, CmlCycle previous, CmlLatency[] latency) {
+        this.number = number;
+        this.firstId = firstId;
+        this.previous = previous;
+        this.latency = latency;
+        startedAt = System.currentTimeMillis();
+        lastId = firstId - 1;
+    }
+
+    void end(long lastId) {
+        this.lastId = lastId;
+        endedAt = System.currentTimeMillis();
+    }
+
+    void summarize(CmlLatency merged) {
+        received = merged.actual.getCount();
+        actualP99 = merged.actual.getValueAtPercentile(99);
+        intendedP50 = merged.intended.getValueAtPercentile(50);
+        intendedP99 = merged.intended.getValueAtPercentile(99);
+        intendedP999 = merged.intended.getValueAtPercentile(99.9);
+        intendedMax = merged.intended.getMax();
+    }
+
+    public long getPublished() {
+        return lastId - firstId + 1;
+    }
+
+    public long getDurationMillis() {
+        return endedAt - startedAt;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getMissing() {
+        return missing;
+    }
+
+    public long getActualP99() {
+        return actualP99;
+    }
+
+    public long getIntendedP50() {
+        return intendedP50;
+    }
+
+    public long getIntendedP99() {
+        return intendedP99;
+    }
+
+    public long getIntendedP999() {
+        return intendedP999;
+    }
+
+    public long getIntendedMax() {
+        return intendedMax;
+    }
+}
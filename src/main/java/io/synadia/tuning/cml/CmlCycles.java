@@ -0,0 +1,166 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static io.synadia.utils.Debug.format3;
+import static io.synadia.utils.Debug.log;
+
+/**
+ * The cycles of one sender in a soak run.
+ * The cycle a message belongs to comes from its id, not from when it arrived, since messages
+ * held in the reconnect buffer are only delivered after the reconnect started the next cycle.
+ * Receivers only record into the current and the previous cycle, and every cycle gets new histograms.
+ * When a cycle starts, the one before the previous is closed: summarized, added to the roll up and its
+ * histograms dropped, so memory stays the same for the whole run no matter how many cycles there are.
+ * It is only closed once no receiver can still be recording into it. Each receiver announces the cycle
+ * it saw before looking up its histogram and goes idle after recording, so a cycle is safe once every
+ * receiver is idle or announced one at least two cycles later. Until then it waits for the next start.
+ * A message that arrives more than a cycle late is not recorded, which with cycles
+ * of seconds or more only happens to messages that were lost anyway.
+ */
+public class CmlCycles {
+    static final int STRIDE = 8; // longs, so every receiver's announcement has its own cache line
+    static final long IDLE = Long.MAX_VALUE;
+
+    private final String label;
+    private final int numReceivers;
+    private final List<CmlCycle> cycles;
+    private final List<CmlCycle> closing; // only touched by the sender thread
+    private final CmlLatency rollup;
+    private final AtomicLongArray announced;
+
+    private volatile CmlCycle current;
+
+    public CmlCycles(String label, int numReceivers) {
+        this.label = label;
+        this.numReceivers = numReceivers;
+        cycles = new ArrayList<>();
+        closing = new ArrayList<>();
+        rollup = new CmlLatency();
+        announced = new AtomicLongArray(numReceivers * STRIDE);
+        for (int rx = 0; rx < numReceivers; rx++) {
+            announced.set(rx * STRIDE, IDLE);
+        }
+    }
+
+    /**
+     * Start the next cycle. Only called by the sender thread.
+     * @param firstId the first id that will be published in the cycle
+     */
+    public void start(long firstId) {
+        CmlCycle prev = current;
+        if (prev != null) {
+            prev.end(firstId - 1);
+            CmlCycle older = prev.previous;
+            if (older != null) {
+                prev.previous = null;
+                closing.add(older);
+            }
+        }
+        CmlLatency[] latency = new CmlLatency[numReceivers];
+        for (int rx = 0; rx < numReceivers; rx++) {
+            latency[rx] = new CmlLatency();
+        }
+        CmlCycle next = new CmlCycle(cycles.size(), firstId, prev, latency);
+        cycles.add(next);
+        current = next;
+        closeSafe();
+    }
+
+    /**
+     * Record a message's latency in the cycle of its id. Only called by the receiver's own thread.
+     */
+    public void record(long id, int rx, long receivedNanos, long sentNanos, long intendedNanos) {
+        CmlCycle c = current;
+        if (c == null) {
+            return;
+        }
+        int ix = rx * STRIDE;
+        announced.set(ix, c.number); // before looking at current again, so the sender sees it before closing
+        c = current;
+        if (id < c.firstId) {
+            c = c.previous;
+        }
+        if (c != null) {
+            c.latency[rx].record(receivedNanos, sentNanos, intendedNanos);
+        }
+        announced.lazySet(ix, IDLE);
+    }
+
+    /**
+     * Close the cycles still open. Call after the receivers are done.
+     * @param lastId the last id that was published
+     */
+    public void finish(long lastId) {
+        CmlCycle c = current;
+        if (c == null) {
+            return;
+        }
+        c.end(lastId);
+        CmlCycle prev = c.previous;
+        if (prev != null) {
+            c.previous = null;
+            closing.add(prev);
+        }
+        closing.add(c);
+        for (CmlCycle cc : closing) {
+            close(cc);
+        }
+        closing.clear();
+    }
+
+    /**
+     * Assign the tracker's gaps to the cycles they fall in. Call after the tracker is finished.
+     */
+    public void assignMissing(MessageIdTracker tracker) {
+        for (CmlCycle c : cycles) {
+            long missing = 0;
+            for (int gx = 0; gx < tracker.getGapCount(); gx++) {
+                long from = Math.max(c.firstId, tracker.getGapStart(gx));
+                long to = Math.min(c.lastId, tracker.getGapEnd(gx));
+                if (from <= to) {
+                    missing += to - from + 1;
+                }
+            }
+            c.missing = missing;
+        }
+    }
+
+    public List<CmlCycle> getCycles() {
+        return cycles;
+    }
+
+    public CmlLatency getRollup() {
+        return rollup;
+    }
+
+    /**
+     * Close the waiting cycles no receiver can still be recording into, the oldest first
+     */
+    private void closeSafe() {
+        long oldest = IDLE;
+        for (int rx = 0; rx < numReceivers; rx++) {
+            oldest = Math.min(oldest, announced.get(rx * STRIDE));
+        }
+        while (!closing.isEmpty() && closing.get(0).number + 2 <= oldest) {
+            close(closing.remove(0));
+        }
+    }
+
+    private void close(CmlCycle c) {
+        CmlLatency merged = new CmlLatency();
+        for (CmlLatency l : c.latency) {
+            merged.add(l);
+        }
+        c.latency = null;
+        c.summarize(merged);
+        rollup.add(merged);
+        log(label, "Cycle %s Closed: %s ms, Published %s, Received %s, Intended p99 %s ms",
+            c.number, c.getDurationMillis(), c.getPublished(), c.getReceived(), format3(c.getIntendedP99() / 1_000_000.0));
+    }
+}
@@ -10,12 +10,14 @@ import io.nats.client.Message;
 import io.synadia.utils.Debug;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.synadia.tuning.cml.CmlUtils.id;
 
 public class CmlErrorListener implements ErrorListener {
 
     public AtomicBoolean connectionException = new AtomicBoolean(false);
+    public AtomicLong slowConsumers = new AtomicLong();
 
     private final String label;
 
@@ -28,30 +30,31 @@ public class CmlErrorListener implements ErrorListener {
         if (error.contains("Read channel closed")) {
             connectionException.set(true);
         }
-        Debug.log(label, id(conn), "errorOccurred: %s", error);
+        Debug.warn(label, id(conn), "errorOccurred: %s", error);
     }
 
     @Override
     public void exceptionOccurred(final Connection conn, final Exception exp) {
-        Debug.log(label, id(conn), "exceptionOccurred: %s", exp);
+        Debug.warn(label, id(conn), "exceptionOccurred: %s", exp);
         if (exp.getCause() != null) {
-            Debug.log(label, "            cause:", exp.getCause());
+            Debug.warn(label, "            cause:", exp.getCause());
         }
     }
 
     @Override
     public void slowConsumerDetected(final Connection conn, final Consumer consumer) {
-        Debug.log(label, id(conn), "slowConsumerDetected: %s", consumer);
+        slowConsumers.incrementAndGet();
+        Debug.warn(label, id(conn), "slowConsumerDetected: %s", consumer);
     }
 
     @Override
     public void messageDiscarded(final Connection conn, final Message msg) {
-        Debug.log(label, id(conn), "messageDiscarded: %s" + msg);
+        Debug.warn(label, id(conn), "messageDiscarded: %s" + msg);
     }
 
     @Override
     public void socketWriteTimeout(Connection conn) {
         connectionException.set(true);
-        Debug.log(label, id(conn), "socketWriteTimeout");
+        Debug.warn(label, id(conn), "socketWriteTimeout");
     }
 }
@@ -0,0 +1,35 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import io.synadia.utils.LogHistogram;
+
+/**
+ * End-to-end latency measured two ways. Actual is from the time the publish was made,
+ * intended is from the time the schedule wanted it made, which includes any time the
+ * sender spent stalled and is the one that is free of coordinated omission.
+ */
+public class CmlLatency {
+    public final LogHistogram actual = new LogHistogram();
+    public final LogHistogram intended = new LogHistogram();
+
+    public void record(long receivedNanos, long sentNanos, long intendedNanos) {
+        if (sentNanos != -1) {
+            actual.record(receivedNanos - sentNanos);
+        }
+        if (intendedNanos != -1) {
+            intended.record(receivedNanos - intendedNanos);
+        }
+    }
+
+    public void add(CmlLatency other) {
+        actual.add(other.actual);
+        intended.add(other.intended);
+    }
+
+    public void reset() {
+        actual.reset();
+        intended.reset();
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import io.synadia.utils.BackpressurePublisher;
+
+/**
+ * The outcome of one CoreMessageLoss run, with the settings it was run with.
+ * Latency is from the intended send time, over every receiver and the whole run.
+ */
+public class CmlResult {
+    public final int sendBufferSize;
+    public final int payloadSize;
+    public final int targetTps;
+    public final int outgoingQueuePercent;
+    public final int maxMessagesInOutgoingQueue;
+    public final long published;
+    public final long missing;
+    public final long publishRate;
+    public final long p50;
+    public final long p99;
+    public final long p999;
+    public final long max;
+    public final long slowConsumers;
+    public final long receiverDisconnects;
+    public final long maxOutgoingPending;
+    public final BackpressurePublisher.Mode backpressure;
+    public final long backpressureWaitNanos;
+
+    public CmlResult(int sendBufferSize, int payloadSize, int targetTps, int outgoingQueuePercent, int maxMessagesInOutgoingQueue,
+                     long published, long missing, long publishRate, CmlLatency latency,
+                     long slowConsumers, long receiverDisconnects, long maxOutgoingPending,
+                     BackpressurePublisher.Mode backpressure, long backpressureWaitNanos) {
+        this.sendBufferSize = sendBufferSize;
+        this.payloadSize = payloadSize;
+        this.targetTps = targetTps;
+        this.outgoingQueuePercent = outgoingQueuePercent;
+        this.maxMessagesInOutgoingQueue = maxMessagesInOutgoingQueue;
+        this.published = published;
+        this.missing = missing;
+        this.publishRate = publishRate;
+        p50 = latency.intended.getValueAtPercentile(50);
+        p99 = latency.intended.getValueAtPercentile(99);
+        p999 = latency.intended.getValueAtPercentile(99.9);
+        max = latency.intended.getMax();
+        this.slowConsumers = slowConsumers;
+        this.receiverDisconnects = receiverDisconnects;
+        this.maxOutgoingPending = maxOutgoingPending;
+        this.backpressure = backpressure;
+        this.backpressureWaitNanos = backpressureWaitNanos;
+    }
+
+    public long getLostBytes() {
+        return missing * payloadSize;
+    }
+
+    /**
+     * True if this result is at least as good as the other on lost bytes, publish rate and p99 latency,
+     * and better on at least one of them
+     */
+    public boolean dominates(CmlResult other) {
+        boolean noWorse = getLostBytes() <= other.getLostBytes()
+            && publishRate >= other.publishRate
+            && p99 <= other.p99;
+        boolean better = getLostBytes() < other.getLostBytes()
+            || publishRate > other.publishRate
+            || p99 < other.p99;
+        return noWorse && better;
+    }
+}
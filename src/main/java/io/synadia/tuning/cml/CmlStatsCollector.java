@@ -6,83 +6,140 @@ package io.synadia.tuning.cml;
 import io.nats.client.impl.NoOpStatistics;
 import io.synadia.utils.Debug;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static io.synadia.utils.Debug.format3;
 
 public class CmlStatsCollector extends NoOpStatistics {
     public static class Group {
-        public long bufferedMessages = 0;
-        public long bufferedBytes = 0;
-        public long writtenMessages = 0;
-        public long writtenBytes = 0;
-        public long notWrittenMessages = 0;
-        public long notWrittenBytes = 0;
+        public final AtomicLong bufferedMessages = new AtomicLong();
+        public final AtomicLong bufferedBytes = new AtomicLong();
+        public final AtomicLong writtenMessages = new AtomicLong();
+        public final AtomicLong writtenBytes = new AtomicLong();
+        public final AtomicLong notWrittenMessages = new AtomicLong();
+        public final AtomicLong notWrittenBytes = new AtomicLong();
+
+        void buffered(long bytes) {
+            bufferedMessages.incrementAndGet();
+            bufferedBytes.addAndGet(bytes);
+            notWrittenMessages.incrementAndGet();
+            notWrittenBytes.addAndGet(bytes);
+        }
+
+        void written() {
+            writtenMessages.addAndGet(notWrittenMessages.getAndSet(0));
+            writtenBytes.addAndGet(notWrittenBytes.getAndSet(0));
+        }
 
         public void debug(String label, String note) {
-            long diff = bufferedMessages - writtenMessages;
+            long diff = bufferedMessages.get() - writtenMessages.get();
             Debug.log(label, note,
                 "Buffered vs Socket Messages: %s vs %s ... %s",
-                format3(bufferedMessages),
-                format3(writtenMessages),
+                format3(bufferedMessages.get()),
+                format3(writtenMessages.get()),
                 format3(diff));
         }
     }
 
-    public final Group pay;
-    public final Group non;
+    /**
+     * The stats between two connection events. The first epoch starts when the collector
+     * is made, every disconnect or reconnect starts the next one.
+     * Whatever is still counted as not written when an epoch ends after a disconnect
+     * was buffered but never made it to the socket.
+     */
+    public static class Epoch {
+        public final int number;
+        public final String startedBy;
+        public final long startedAt;
+        public final Group pay = new Group();
+        public final Group non = new Group();
+        public volatile String endedBy;
+        public volatile long endedAt;
+
+        Epoch(int number, String startedBy) {
+            this.number = number;
+            this.startedBy = startedBy;
+            startedAt = System.currentTimeMillis();
+        }
+
+        public boolean endedByDisconnect() {
+            return CmlStatsCollector.DISCONNECTED.equals(endedBy);
+        }
+
+        public long strandedMessages() {
+            return pay.notWrittenMessages.get() + non.notWrittenMessages.get();
+        }
 
-    public final Group pay2;
-    public final Group non2;
+        public long strandedBytes() {
+            return pay.notWrittenBytes.get() + non.notWrittenBytes.get();
+        }
+    }
+
+    public static final String STARTED = "started";
+    public static final String DISCONNECTED = "disconnected";
+    public static final String RECONNECTED = "reconnected";
 
     public final int payloadSize;
-    public final AtomicInteger phase;
+    public final AtomicLong payloadsBuffered;
+    public final AtomicLong socketWrites;
+    public final AtomicLong socketBytes;
+    private final AtomicReference<Epoch> current;
+    private final List<Epoch> epochs;
 
     public CmlStatsCollector(int payloadSize) {
-        pay = new Group();
-        non = new Group();
-        pay2 = new Group();
-        non2 = new Group();
         this.payloadSize = payloadSize;
-        phase = new AtomicInteger(1);
+        payloadsBuffered = new AtomicLong();
+        socketWrites = new AtomicLong();
+        socketBytes = new AtomicLong();
+        epochs = new CopyOnWriteArrayList<>();
+        Epoch first = new Epoch(0, STARTED);
+        epochs.add(first);
+        current = new AtomicReference<>(first);
     }
 
-    public long getTotalPayloadBufferedMessages() {
-        return pay.bufferedMessages + pay2.bufferedMessages;
+    /**
+     * End the current epoch and start the next one. Called from the connection listener.
+     */
+    public synchronized Epoch newEpoch(String event) {
+        Epoch ending = current.get();
+        ending.endedBy = event;
+        ending.endedAt = System.currentTimeMillis();
+        Epoch next = new Epoch(ending.number + 1, event);
+        epochs.add(next);
+        current.set(next);
+        return ending;
+    }
+
+    public Epoch currentEpoch() {
+        return current.get();
     }
 
-    public void startPhase2() {
-        phase.set(2);
+    public List<Epoch> getEpochs() {
+        return epochs;
+    }
+
+    public long getTotalPayloadBufferedMessages() {
+        long total = 0;
+        for (Epoch e : epochs) {
+            total += e.pay.bufferedMessages.get();
+        }
+        return total;
     }
 
     @Override
     public void incrementOut(long bytes) {
         try {
-            Group g;
-            switch (phase.get()) {
-                case 1:
-                    if (bytes >= payloadSize) {
-                        g = pay;
-                    }
-                    else {
-                        g = non;
-                    }
-                    break;
-                case 2:
-                    if (bytes >= payloadSize) {
-                        g = pay2;
-                    }
-                    else {
-                        g = non2;
-                    }
-                    break;
-                default:
-                    return;
+            Epoch e = current.get();
+            if (bytes >= payloadSize) {
+                payloadsBuffered.incrementAndGet();
+                e.pay.buffered(bytes);
+            }
+            else {
+                e.non.buffered(bytes);
             }
-            g.bufferedMessages++;
-            g.bufferedBytes += bytes;
-            g.notWrittenMessages++;
-            g.notWrittenBytes += bytes;
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -92,29 +149,11 @@ public class CmlStatsCollector extends NoOpStatistics {
     @Override
     public void registerWrite(long bytes) {
         try {
-            Group gPay;
-            Group gNon;
-            switch (phase.get()) {
-                case 1:
-                    gPay = pay;
-                    gNon = non;
-                    break;
-                case 2:
-                    gPay = pay2;
-                    gNon = non2;
-                    break;
-                default:
-                    return;
-            }
-
-            gPay.writtenMessages += gPay.notWrittenMessages;
-            gNon.writtenMessages += gNon.notWrittenMessages;
-            gPay.writtenBytes += gPay.notWrittenBytes;
-            gNon.writtenBytes += gNon.notWrittenBytes;
-            gPay.notWrittenMessages = 0;
-            gNon.notWrittenMessages = 0;
-            gPay.notWrittenBytes = 0;
-            gNon.notWrittenBytes = 0;
+            socketWrites.incrementAndGet();
+            socketBytes.addAndGet(bytes);
+            Epoch e = current.get();
+            e.pay.written();
+            e.non.written();
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,165 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import io.synadia.utils.PropertyUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static io.synadia.utils.ArgumentUtils.*;
+import static io.synadia.utils.Debug.format3;
+import static io.synadia.utils.Debug.log;
+import static io.synadia.utils.MiscUtils.sleep;
+
+/**
+ * Runs CoreMessageLoss once for every combination of the sweep values, each run with the same
+ * automated outage, and reports lost bytes, publish rate and latency for every point and which points
+ * are on the Pareto front. Every other CoreMessageLoss setting comes from the same properties and command line.
+ */
+public class CmlSweep {
+    private static final String LABEL = "SWEEP";
+    private static final String DEFAULT_OUTAGE = "0@5k:reset:1k";
+    private static final long SETTLE_MILLIS = 2000;
+
+    private static final String KEY_PROPS = "props";
+    private static final String[] KEYS_FAULTS = new String[]{"faults", "f"};
+    private static final String[] KEYS_SWEEP_SEND_BUFFER_SIZE = new String[]{"sweep.send.buffer.size", "ssb"};
+    private static final String[] KEYS_SWEEP_PAYLOAD_SIZE = new String[]{"sweep.payload.size", "sp"};
+    private static final String[] KEYS_SWEEP_TPS = new String[]{"sweep.tps", "st"};
+    private static final String[] KEYS_SWEEP_OUTGOING_QUEUE_PERCENT = new String[]{"sweep.outgoing.queue.percent", "sq"};
+    private static final String[] KEYS_SWEEP_BACKPRESSURE = new String[]{"sweep.backpressure", "sbp"};
+
+    public static void main(String[] args) throws Exception {
+        String propsFile = getArg(args, "cml.application.properties", KEY_PROPS);
+        Properties props = PropertyUtils.loadProperties(propsFile);
+
+        List<String> sendBufferSizes = sweepValues(props, args, KEYS_SWEEP_SEND_BUFFER_SIZE);
+        List<String> payloadSizes = sweepValues(props, args, KEYS_SWEEP_PAYLOAD_SIZE);
+        List<String> tpss = sweepValues(props, args, KEYS_SWEEP_TPS);
+        List<String> outgoingQueuePercents = sweepValues(props, args, KEYS_SWEEP_OUTGOING_QUEUE_PERCENT);
+        List<String> backpressures = sweepValues(props, args, KEYS_SWEEP_BACKPRESSURE);
+
+        // every point needs an outage, otherwise the sender never leaves the send loop
+        List<String> base = new ArrayList<>(Arrays.asList(args));
+        String faults = getArg(args, getProperty(props, "", KEYS_FAULTS[0]), KEYS_FAULTS);
+        if (faults == null || faults.trim().isEmpty()) {
+            base.add(KEYS_FAULTS[0] + "=" + DEFAULT_OUTAGE);
+            faults = DEFAULT_OUTAGE;
+        }
+
+        log(LABEL, "----- Sweep -----");
+        log(LABEL, "Send Buffer Size", sendBufferSizes);
+        log(LABEL, "Payload Size", payloadSizes);
+        log(LABEL, "TPS", tpss);
+        log(LABEL, "Outgoing Queue Percent", outgoingQueuePercents);
+        log(LABEL, "Backpressure", backpressures);
+        log(LABEL, "Faults", faults);
+
+        List<CmlResult> results = new ArrayList<>();
+        for (String sb : sendBufferSizes) {
+            for (String p : payloadSizes) {
+                for (String t : tpss) {
+                    for (String q : outgoingQueuePercents) {
+                        for (String bp : backpressures) {
+                            // overrides go first, the first match of a key on the command line wins
+                            List<String> point = new ArrayList<>();
+                            addOverride(point, "send.buffer.size", sb);
+                            addOverride(point, "payload.size", p);
+                            addOverride(point, "tps", t);
+                            addOverride(point, "outgoing.queue.percent", q);
+                            addOverride(point, "backpressure", bp);
+                            log(LABEL, "----- Point %s -----", results.size(), point);
+                            point.addAll(base);
+                            try {
+                                results.add(new CoreMessageLoss(point.toArray(new String[0])).run());
+                            }
+                            catch (Exception e) {
+                                log(LABEL, "Point Failed", point, e);
+                            }
+                            sleep(SETTLE_MILLIS);
+                        }
+                    }
+                }
+            }
+        }
+
+        report(results);
+    }
+
+    private static List<String> sweepValues(Properties props, String[] args, String[] keys) {
+        String val = getArg(args, getProperty(props, null, keys[0]), keys);
+        List<String> values = new ArrayList<>();
+        if (val != null) {
+            for (String v : val.split(",")) {
+                if (!v.trim().isEmpty()) {
+                    values.add(v.trim());
+                }
+            }
+        }
+        if (values.isEmpty()) {
+            values.add(null); // not swept, the usual setting applies
+        }
+        return values;
+    }
+
+    private static void addOverride(List<String> point, String key, String value) {
+        if (value != null) {
+            point.add(key + "=" + value);
+        }
+    }
+
+    private static void report(List<CmlResult> results) {
+        System.out.println("\nSWEEP");
+        System.out.println("  Send Buf  Payload      TPS  OutQ%  OutQ Max  Backpressure  BP Wait ms  Published   Rate/sec   Missing    Lost Bytes   p50 ms   p99 ms p99.9 ms  Pareto");
+        List<CmlResult> front = new ArrayList<>();
+        for (CmlResult r : results) {
+            boolean pareto = isPareto(r, results);
+            if (pareto) {
+                front.add(r);
+            }
+            printResult(r, pareto);
+        }
+
+        System.out.println("\n  Pareto Front, Lost Bytes vs Publish Rate vs p99 Latency...");
+        front.sort((a, b) -> Long.compare(a.getLostBytes(), b.getLostBytes()));
+        for (CmlResult r : front) {
+            printResult(r, true);
+        }
+    }
+
+    private static boolean isPareto(CmlResult r, List<CmlResult> results) {
+        for (CmlResult other : results) {
+            if (other != r && other.dominates(r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void printResult(CmlResult r, boolean pareto) {
+        System.out.println("  "
+            + formatRight(r.sendBufferSize, 8) + " "
+            + formatRight(r.payloadSize, 8) + " "
+            + formatRight(r.targetTps, 8) + " "
+            + formatRight(r.outgoingQueuePercent, 6) + " "
+            + formatRight(r.maxMessagesInOutgoingQueue, 9) + " "
+            + String.format("%13s", r.backpressure) + " "
+            + String.format("%11s", format3(r.backpressureWaitNanos / 1_000_000.0)) + " "
+            + formatRight(r.published, 10) + " "
+            + formatRight(r.publishRate, 10) + " "
+            + formatRight(r.missing, 9) + " "
+            + formatRight(r.getLostBytes(), 13) + " "
+            + millis(r.p50) + " "
+            + millis(r.p99) + " "
+            + millis(r.p999) + "  "
+            + (pareto ? "*" : ""));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%8s", format3(nanos / 1_000_000.0));
+    }
+}
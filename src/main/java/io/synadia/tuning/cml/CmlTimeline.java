@@ -0,0 +1,139 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import io.synadia.utils.ColumnarBuffer;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The run as data: one row of numbers per second in a columnar buffer, and the connection
+ * and fault events as they happen. Every flush appends what was collected since the last flush
+ * to the files and clears it, so flushing during a long run keeps memory flat.
+ * Csv writes the samples to file.csv and the events to file-events.csv,
+ * Jsonl writes both to file.jsonl, with a "type" of "sample" or "event".
+ */
+public class CmlTimeline {
+    public enum Format {
+        Csv,
+        Jsonl;
+
+        public static Format parse(String s) {
+            for (Format f : values()) {
+                if (f.name().equalsIgnoreCase(s.trim())) {
+                    return f;
+                }
+            }
+            throw new IllegalArgumentException("Unknown timeline format: " + s);
+        }
+    }
+
+    private static final String TIME = "time";
+    private static final String ELAPSED = "elapsed.ms";
+
+    private final String file;
+    private final Format format;
+    private final long startMillis;
+    private final ColumnarBuffer samples;
+    private final long[] row;
+    private final List<String[]> events;
+    private boolean started;
+
+    /**
+     * @param file the path of the output, without the extension
+     * @param columns the sample columns, time and elapsed columns are added in front
+     */
+    public CmlTimeline(String file, Format format, List<String> columns) {
+        this.file = file;
+        this.format = format;
+        startMillis = System.currentTimeMillis();
+        String[] all = new String[columns.size() + 2];
+        all[0] = TIME;
+        all[1] = ELAPSED;
+        for (int ix = 0; ix < columns.size(); ix++) {
+            all[ix + 2] = columns.get(ix);
+        }
+        samples = new ColumnarBuffer(all);
+        row = new long[all.length];
+        events = new ArrayList<>();
+    }
+
+    /**
+     * Add a row of samples. Only called from the sampler thread.
+     * @param values one value per sample column, in column order
+     */
+    public void sample(long[] values) {
+        long now = System.currentTimeMillis();
+        row[0] = now;
+        row[1] = now - startMillis;
+        System.arraycopy(values, 0, row, 2, values.length);
+        samples.addRow(row);
+    }
+
+    public void event(String source, String event) {
+        long now = System.currentTimeMillis();
+        synchronized (events) {
+            events.add(new String[]{Long.toString(now), Long.toString(now - startMillis), source, event});
+        }
+    }
+
+    /**
+     * Append everything collected since the last flush to the files
+     */
+    public synchronized void flush() throws IOException {
+        List<String[]> flushing;
+        synchronized (events) {
+            flushing = new ArrayList<>(events);
+            events.clear();
+        }
+        boolean append = started;
+        started = true;
+        if (format == Format.Jsonl) {
+            try (Writer w = new FileWriter(file + ".jsonl", append)) {
+                samples.writeJsonLines(w, "sample");
+                for (String[] e : flushing) {
+                    w.append("{\"type\":\"event\",\"" + TIME + "\":").append(e[0])
+                        .append(",\"" + ELAPSED + "\":").append(e[1])
+                        .append(",\"source\":").append(json(e[2]))
+                        .append(",\"event\":").append(json(e[3]))
+                        .append("}\n");
+                }
+            }
+        }
+        else {
+            try (Writer w = new FileWriter(file + ".csv", append)) {
+                if (!append) {
+                    samples.writeCsvHeader(w);
+                }
+                samples.writeCsv(w);
+            }
+            try (Writer w = new FileWriter(file + "-events.csv", append)) {
+                if (!append) {
+                    w.append(TIME + "," + ELAPSED + ",source,event\n");
+                }
+                for (String[] e : flushing) {
+                    w.append(e[0]).append(',').append(e[1]).append(',')
+                        .append(csv(e[2])).append(',').append(csv(e[3])).append('\n');
+                }
+            }
+        }
+        samples.clear();
+    }
+
+    public String getFile() {
+        return format == Format.Jsonl ? file + ".jsonl" : file + ".csv";
+    }
+
+    private static String csv(String s) {
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -6,14 +6,40 @@ import io.nats.client.impl.Headers;
 
 public abstract class CmlUtils {
     public static String MESSAGE_ID_KEY = "mid";
+    public static String SEND_TIME_KEY = "ts";
+    public static String INTENDED_TIME_KEY = "its";
+    public static String SENDER_ID_KEY = "sid";
+
+    // Binary id mode layout at the start of the payload, big endian
+    public static final int ID_OFFSET = 0;
+    public static final int SEND_TIME_OFFSET = 8;
+    public static final int INTENDED_TIME_OFFSET = 16;
+    public static final int SENDER_ID_OFFSET = 24;
+    public static final int BINARY_FIELDS_SIZE = 28;
 
     public static long extractMessageId(Message msg) {
+        return extractHeaderLong(msg, MESSAGE_ID_KEY);
+    }
+
+    public static long extractSendTime(Message msg) {
+        return extractHeaderLong(msg, SEND_TIME_KEY);
+    }
+
+    public static long extractIntendedTime(Message msg) {
+        return extractHeaderLong(msg, INTENDED_TIME_KEY);
+    }
+
+    public static int extractSenderId(Message msg) {
+        return (int)extractHeaderLong(msg, SENDER_ID_KEY);
+    }
+
+    private static long extractHeaderLong(Message msg, String key) {
         Headers headers = msg.getHeaders();
         if (headers != null) {
-            String mid = headers.getFirst(MESSAGE_ID_KEY);
-            if (mid != null) {
+            String val = headers.getFirst(key);
+            if (val != null) {
                 try {
-                    return Long.parseLong(mid);
+                    return Long.parseLong(val);
                 }
                 catch (NumberFormatException ignored) {}
             }
@@ -21,6 +47,81 @@ public abstract class CmlUtils {
         return -1;
     }
 
+    public static long extractBinaryMessageId(Message msg) {
+        byte[] data = msg.getData();
+        if (data == null || data.length < BINARY_FIELDS_SIZE) {
+            return -1;
+        }
+        return readLong(data, ID_OFFSET);
+    }
+
+    public static long extractBinarySendTime(Message msg) {
+        byte[] data = msg.getData();
+        if (data == null || data.length < BINARY_FIELDS_SIZE) {
+            return -1;
+        }
+        return readLong(data, SEND_TIME_OFFSET);
+    }
+
+    public static long extractBinaryIntendedTime(Message msg) {
+        byte[] data = msg.getData();
+        if (data == null || data.length < BINARY_FIELDS_SIZE) {
+            return -1;
+        }
+        return readLong(data, INTENDED_TIME_OFFSET);
+    }
+
+    public static int extractBinarySenderId(Message msg) {
+        byte[] data = msg.getData();
+        if (data == null || data.length < BINARY_FIELDS_SIZE) {
+            return -1;
+        }
+        return readInt(data, SENDER_ID_OFFSET);
+    }
+
+    public static void writeBinaryFields(byte[] payload, long id, long sendTime, long intendedTime, int senderId) {
+        writeLong(payload, ID_OFFSET, id);
+        writeLong(payload, SEND_TIME_OFFSET, sendTime);
+        writeLong(payload, INTENDED_TIME_OFFSET, intendedTime);
+        writeInt(payload, SENDER_ID_OFFSET, senderId);
+    }
+
+    public static void writeLong(byte[] b, int off, long v) {
+        b[off]     = (byte)(v >>> 56);
+        b[off + 1] = (byte)(v >>> 48);
+        b[off + 2] = (byte)(v >>> 40);
+        b[off + 3] = (byte)(v >>> 32);
+        b[off + 4] = (byte)(v >>> 24);
+        b[off + 5] = (byte)(v >>> 16);
+        b[off + 6] = (byte)(v >>> 8);
+        b[off + 7] = (byte)v;
+    }
+
+    public static long readLong(byte[] b, int off) {
+        return ((long)b[off] << 56)
+            | ((long)(b[off + 1] & 0xFF) << 48)
+            | ((long)(b[off + 2] & 0xFF) << 40)
+            | ((long)(b[off + 3] & 0xFF) << 32)
+            | ((long)(b[off + 4] & 0xFF) << 24)
+            | ((long)(b[off + 5] & 0xFF) << 16)
+            | ((long)(b[off + 6] & 0xFF) << 8)
+            | ((long)(b[off + 7] & 0xFF));
+    }
+
+    public static void writeInt(byte[] b, int off, int v) {
+        b[off]     = (byte)(v >>> 24);
+        b[off + 1] = (byte)(v >>> 16);
+        b[off + 2] = (byte)(v >>> 8);
+        b[off + 3] = (byte)v;
+    }
+
+    public static int readInt(byte[] b, int off) {
+        return (b[off] << 24)
+            | ((b[off + 1] & 0xFF) << 16)
+            | ((b[off + 2] & 0xFF) << 8)
+            | (b[off + 3] & 0xFF);
+    }
+
     public static String id(Connection conn) {
         return Integer.toHexString(conn.hashCode()).toUpperCase() + "/" + conn.getServerInfo().getClientId();
     }
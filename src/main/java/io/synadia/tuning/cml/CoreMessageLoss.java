@@ -1,31 +1,57 @@
 package io.synadia.tuning.cml;
 
 import io.nats.client.Connection;
+import io.nats.client.Consumer;
 import io.nats.client.Dispatcher;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
 import io.nats.client.Nats;
 import io.nats.client.Options;
+import io.nats.client.Subscription;
 import io.nats.client.impl.Headers;
 import io.nats.client.impl.NoOpStatistics;
+import io.synadia.utils.AsyncDebugPrinter;
+import io.synadia.utils.BackpressurePublisher;
+import io.synadia.utils.Debug;
+import io.synadia.utils.FaultProxy;
+import io.synadia.utils.FaultSchedule;
+import io.synadia.utils.LogHistogram;
+import io.synadia.utils.OutgoingQueueSampler;
+import io.synadia.utils.PaddedCounter;
 import io.synadia.utils.PropertyUtils;
+import io.synadia.utils.RatePacer;
+import io.synadia.utils.StripedHistogram;
+import io.synadia.utils.TimeSeries;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
-import static io.synadia.tuning.cml.CmlUtils.MESSAGE_ID_KEY;
-import static io.synadia.tuning.cml.CmlUtils.extractMessageId;
+import static io.synadia.tuning.cml.CmlUtils.*;
 import static io.synadia.utils.ArgumentUtils.*;
+import static io.synadia.utils.Debug.format3;
 import static io.synadia.utils.Debug.log;
+import static io.synadia.utils.Debug.warn;
 import static io.synadia.utils.Debug.stringify;
 import static io.synadia.utils.MiscUtils.sleep;
+import static io.synadia.utils.RatePacer.Schedule;
 
 public class CoreMessageLoss {
     // Labels
@@ -36,27 +62,86 @@ public class CoreMessageLoss {
     private static final String TEST_SUBJECT = "test";
     private static final String TERMINATE_SUBJECT = "term";
     private static final String TEST_QUEUE = "q";
-    private static final long WAIT_FOR_MESSAGES = 5000;
+    private static final int SERIES_SECONDS = 3600;
 
     private static final String KEY_PROPS = "props";
     private static final String[] KEYS_SERVERS = new String[]{"servers", "s"};
     private static final String[] KEYS_TPS = new String[]{"tps", "t"};
     private static final String[] KEYS_PAYLOAD_SIZE = new String[]{"payload.size", "p"};
     private static final String[] KEYS_RECEIVERS = new String[]{"receivers", "r"};
+    private static final String[] KEYS_SENDERS = new String[]{"senders", "n"};
     private static final String[] KEYS_SEND_BUFFER_SIZE = new String[]{"send.buffer.size", "b"};
     private static final String[] KEYS_CONNECTION_TIMEOUT_MILLIS = new String[]{"connection.timeout.millis", "c"};
+    private static final String[] KEYS_OUTGOING_QUEUE_PERCENT = new String[]{"outgoing.queue.percent", "q"};
+    private static final String[] KEYS_ID_MODE = new String[]{"id.mode", "i"};
+    private static final String[] KEYS_SCHEDULE = new String[]{"schedule", "sc"};
+    private static final String[] KEYS_PROXY = new String[]{"proxy", "x"};
+    private static final String[] KEYS_FAULTS = new String[]{"faults", "f"};
+    private static final String[] KEYS_FAULTS_REPEAT_MILLIS = new String[]{"faults.repeat.millis", "fr"};
+    private static final String[] KEYS_SOAK_MILLIS = new String[]{"soak.millis", "sk"};
+    private static final String[] KEYS_RECEIVE_TIMEOUT_MILLIS = new String[]{"receive.timeout.millis", "rt"};
+    private static final String[] KEYS_FINISH_WAIT_MILLIS = new String[]{"finish.wait.millis", "fw"};
+    private static final String[] KEYS_WARMUP_MILLIS = new String[]{"warmup.millis", "w"};
+    private static final String[] KEYS_RECEIVER_MODEL = new String[]{"receiver.model", "rm"};
+    private static final String[] KEYS_RECEIVER_DISPATCHERS = new String[]{"receiver.dispatchers", "rd"};
+    private static final String[] KEYS_RECEIVER_SUBSCRIPTIONS = new String[]{"receiver.subscriptions", "rs"};
+    private static final String[] KEYS_HANDLER_THREADS = new String[]{"handler.threads", "ht"};
+    private static final String[] KEYS_HANDLER_COST_MICROS = new String[]{"handler.cost.micros", "hc"};
+    private static final String[] KEYS_HANDLER_QUEUE = new String[]{"handler.queue", "hq"};
+    private static final String[] KEYS_TIMELINE_FILE = new String[]{"timeline.file", "tf"};
+    private static final String[] KEYS_TIMELINE_FORMAT = new String[]{"timeline.format", "tfmt"};
+    private static final String[] KEYS_TIMELINE_FLUSH_SECONDS = new String[]{"timeline.flush.seconds", "tfs"};
+    private static final String[] KEYS_LOG_LEVEL = new String[]{"log.level", "ll"};
+    private static final String[] KEYS_LOG_ASYNC = new String[]{"log.async", "la"};
+    private static final String[] KEYS_BACKPRESSURE = new String[]{"backpressure", "bp"};
+    private static final String[] KEYS_BACKPRESSURE_HIGH_PERCENT = new String[]{"backpressure.high.percent", "bph"};
+    private static final String[] KEYS_BACKPRESSURE_LOW_PERCENT = new String[]{"backpressure.low.percent", "bpl"};
+    private static final String[] KEYS_BACKPRESSURE_MAX_WAIT_MILLIS = new String[]{"backpressure.max.wait.millis", "bpw"};
+    private static final String[] KEYS_QUEUE_SAMPLE_MICROS = new String[]{"queue.sample.micros", "qs"};
 
     // arguments
     final String[] servers;
     final int targetTps;
     final int payloadSize;
     final int numReceivers;
+    final int numSenders;
     final int sendBufferSize;
+    final int outgoingQueuePercent;
     final int maxMessagesInOutgoingQueue;
     final long connectionTimeoutMillis;
+    final IdMode idMode;
+    final Schedule schedule;
+    final boolean proxy;
+    final FaultSchedule faults;
+    final List<FaultProxy> proxies = new ArrayList<>();
+    final long faultsRepeatMillis;
+    final long soakMillis;
+    final boolean soak;
+    final long receiveTimeoutMillis;
+    final long finishWaitMillis;
+    final long warmupMillis;
+    final ReceiverModel receiverModel;
+    final int receiverDispatchers;
+    final int receiverSubscriptions;
+    final int handlerThreads;
+    final long handlerCostNanos;
+    final int handlerQueue;
+    final int lanesPerReceiver;
+    final String timelineFile;
+    final CmlTimeline.Format timelineFormat;
+    final long timelineFlushSeconds;
+    final boolean logAsync;
+    final BackpressurePublisher.Mode backpressure;
+    final int backpressureHighPercent;
+    final int backpressureLowPercent;
+    final long backpressureMaxWaitMillis;
+    final long queueSampleMicros;
 
     // per run
     ScheduledExecutorService scheduler;
+    volatile long soakEndMillis; // 0 when not soaking, so the receive timeout is always active
+    volatile long measureStartNanos = Long.MAX_VALUE; // when the warmup is over
+    CmlTimeline timeline; // null unless there is a timeline file
 
     public static void main(String[] args) throws Exception {
         new CoreMessageLoss(args).run();
@@ -71,45 +156,208 @@ public class CoreMessageLoss {
         int _targetTps = getIntProperty(props, 10_000, KEYS_TPS[0]);
         int _payloadSize = getIntProperty(props, 12 * 1024, KEYS_PAYLOAD_SIZE[0]);
         int _numReceivers = getIntProperty(props, 1, KEYS_RECEIVERS[0]);
+        int _numSenders = getIntProperty(props, 1, KEYS_SENDERS[0]);
         int _sendBufferSize = getIntProperty(props, -1, KEYS_SEND_BUFFER_SIZE[0]);
         long _connectionTimeoutMillis = getLongProperty(props, 5000, KEYS_CONNECTION_TIMEOUT_MILLIS[0]);
+        int _outgoingQueuePercent = getIntProperty(props, 125, KEYS_OUTGOING_QUEUE_PERCENT[0]);
+        String _idMode = getProperty(props, IdMode.Header.name(), KEYS_ID_MODE[0]);
+        String _schedule = getProperty(props, Schedule.Fixed.name(), KEYS_SCHEDULE[0]);
+        String _proxy = getProperty(props, "false", KEYS_PROXY[0]);
+        String _faults = getProperty(props, "", KEYS_FAULTS[0]);
+        long _faultsRepeatMillis = getLongProperty(props, 0, KEYS_FAULTS_REPEAT_MILLIS[0]);
+        long _soakMillis = getLongProperty(props, 0, KEYS_SOAK_MILLIS[0]);
+        long _receiveTimeoutMillis = getLongProperty(props, 5000, KEYS_RECEIVE_TIMEOUT_MILLIS[0]);
+        long _finishWaitMillis = getLongProperty(props, 30000, KEYS_FINISH_WAIT_MILLIS[0]);
+        long _warmupMillis = getLongProperty(props, 0, KEYS_WARMUP_MILLIS[0]);
+        String _receiverModel = getProperty(props, ReceiverModel.Dispatcher.name(), KEYS_RECEIVER_MODEL[0]);
+        int _receiverDispatchers = getIntProperty(props, 1, KEYS_RECEIVER_DISPATCHERS[0]);
+        int _receiverSubscriptions = getIntProperty(props, 1, KEYS_RECEIVER_SUBSCRIPTIONS[0]);
+        int _handlerThreads = getIntProperty(props, 4, KEYS_HANDLER_THREADS[0]);
+        long _handlerCostMicros = getLongProperty(props, 0, KEYS_HANDLER_COST_MICROS[0]);
+        int _handlerQueue = getIntProperty(props, 10000, KEYS_HANDLER_QUEUE[0]);
+        String _timelineFile = getProperty(props, "", KEYS_TIMELINE_FILE[0]);
+        String _timelineFormat = getProperty(props, CmlTimeline.Format.Csv.name(), KEYS_TIMELINE_FORMAT[0]);
+        long _timelineFlushSeconds = getLongProperty(props, 0, KEYS_TIMELINE_FLUSH_SECONDS[0]);
+        String _logLevel = getProperty(props, "info", KEYS_LOG_LEVEL[0]);
+        String _logAsync = getProperty(props, "false", KEYS_LOG_ASYNC[0]);
+        String _backpressure = getProperty(props, BackpressurePublisher.Mode.None.name(), KEYS_BACKPRESSURE[0]);
+        int _backpressureHighPercent = getIntProperty(props, 80, KEYS_BACKPRESSURE_HIGH_PERCENT[0]);
+        int _backpressureLowPercent = getIntProperty(props, 50, KEYS_BACKPRESSURE_LOW_PERCENT[0]);
+        long _backpressureMaxWaitMillis = getLongProperty(props, 1000, KEYS_BACKPRESSURE_MAX_WAIT_MILLIS[0]);
+        long _queueSampleMicros = getLongProperty(props, 1000, KEYS_QUEUE_SAMPLE_MICROS[0]);
 
         // command line takes precedent if present
         _servers = getArg(args, _servers, KEYS_SERVERS);
         _targetTps = getIntArg(args, _targetTps, KEYS_TPS);
         _payloadSize = getIntArg(args, _payloadSize, KEYS_PAYLOAD_SIZE);
         _numReceivers = getIntArg(args, _numReceivers, KEYS_RECEIVERS);
+        _numSenders = getIntArg(args, _numSenders, KEYS_SENDERS);
         _sendBufferSize = getIntArg(args, _sendBufferSize, KEYS_SEND_BUFFER_SIZE);
         _connectionTimeoutMillis = getLongArg(args, _connectionTimeoutMillis, KEYS_CONNECTION_TIMEOUT_MILLIS);
+        _outgoingQueuePercent = getIntArg(args, _outgoingQueuePercent, KEYS_OUTGOING_QUEUE_PERCENT);
+        _idMode = getArg(args, _idMode, KEYS_ID_MODE);
+        _schedule = getArg(args, _schedule, KEYS_SCHEDULE);
+        _proxy = getArg(args, _proxy, KEYS_PROXY);
+        _faults = getArg(args, _faults, KEYS_FAULTS);
+        _faultsRepeatMillis = getLongArg(args, _faultsRepeatMillis, KEYS_FAULTS_REPEAT_MILLIS);
+        _soakMillis = getLongArg(args, _soakMillis, KEYS_SOAK_MILLIS);
+        _receiveTimeoutMillis = getLongArg(args, _receiveTimeoutMillis, KEYS_RECEIVE_TIMEOUT_MILLIS);
+        _finishWaitMillis = getLongArg(args, _finishWaitMillis, KEYS_FINISH_WAIT_MILLIS);
+        _warmupMillis = getLongArg(args, _warmupMillis, KEYS_WARMUP_MILLIS);
+        _receiverModel = getArg(args, _receiverModel, KEYS_RECEIVER_MODEL);
+        _receiverDispatchers = getIntArg(args, _receiverDispatchers, KEYS_RECEIVER_DISPATCHERS);
+        _receiverSubscriptions = getIntArg(args, _receiverSubscriptions, KEYS_RECEIVER_SUBSCRIPTIONS);
+        _handlerThreads = getIntArg(args, _handlerThreads, KEYS_HANDLER_THREADS);
+        _handlerCostMicros = getLongArg(args, _handlerCostMicros, KEYS_HANDLER_COST_MICROS);
+        _handlerQueue = getIntArg(args, _handlerQueue, KEYS_HANDLER_QUEUE);
+        _timelineFile = getArg(args, _timelineFile, KEYS_TIMELINE_FILE);
+        _timelineFormat = getArg(args, _timelineFormat, KEYS_TIMELINE_FORMAT);
+        _timelineFlushSeconds = getLongArg(args, _timelineFlushSeconds, KEYS_TIMELINE_FLUSH_SECONDS);
+        _logLevel = getArg(args, _logLevel, KEYS_LOG_LEVEL);
+        _logAsync = getArg(args, _logAsync, KEYS_LOG_ASYNC);
+        _backpressure = getArg(args, _backpressure, KEYS_BACKPRESSURE);
+        _backpressureHighPercent = getIntArg(args, _backpressureHighPercent, KEYS_BACKPRESSURE_HIGH_PERCENT);
+        _backpressureLowPercent = getIntArg(args, _backpressureLowPercent, KEYS_BACKPRESSURE_LOW_PERCENT);
+        _backpressureMaxWaitMillis = getLongArg(args, _backpressureMaxWaitMillis, KEYS_BACKPRESSURE_MAX_WAIT_MILLIS);
+        _queueSampleMicros = getLongArg(args, _queueSampleMicros, KEYS_QUEUE_SAMPLE_MICROS);
 
         //noinspection DataFlowIssue
-        servers = _servers.split(",");
+        String[] targetServers = _servers.split(",");
         targetTps = _targetTps;
         payloadSize = _payloadSize;
         numReceivers = _numReceivers;
+        numSenders = Math.max(1, _numSenders);
         sendBufferSize = _sendBufferSize;
         connectionTimeoutMillis = _connectionTimeoutMillis;
-        int mmiq = targetTps * 125 / 100; // 125 % of target tps
+        //noinspection DataFlowIssue
+        idMode = IdMode.parse(_idMode);
+        //noinspection DataFlowIssue
+        schedule = Schedule.parse(_schedule);
+        if (idMode == IdMode.Binary && payloadSize < BINARY_FIELDS_SIZE) {
+            throw new IllegalArgumentException("Payload size must be at least " + BINARY_FIELDS_SIZE + " for the binary id mode.");
+        }
+        faults = FaultSchedule.parse(_faults);
+        faultsRepeatMillis = _faultsRepeatMillis;
+        soakMillis = _soakMillis;
+        soak = soakMillis > 0;
+        receiveTimeoutMillis = _receiveTimeoutMillis;
+        finishWaitMillis = _finishWaitMillis;
+        warmupMillis = _warmupMillis;
+        //noinspection DataFlowIssue
+        receiverModel = ReceiverModel.parse(_receiverModel);
+        receiverDispatchers = Math.max(1, _receiverDispatchers);
+        receiverSubscriptions = Math.max(1, _receiverSubscriptions);
+        handlerThreads = Math.max(1, _handlerThreads);
+        handlerCostNanos = _handlerCostMicros * 1000;
+        handlerQueue = Math.max(1, _handlerQueue);
+        // a lane is one thread that receives, sync has one per subscription, the others one per dispatcher
+        lanesPerReceiver = receiverModel == ReceiverModel.Sync ? receiverSubscriptions : receiverDispatchers;
+        //noinspection DataFlowIssue
+        timelineFile = _timelineFile.trim();
+        //noinspection DataFlowIssue
+        timelineFormat = CmlTimeline.Format.parse(_timelineFormat);
+        timelineFlushSeconds = Math.max(0, _timelineFlushSeconds);
+        //noinspection DataFlowIssue
+        Debug.LEVEL = Debug.parseLevel(_logLevel);
+        logAsync = Boolean.parseBoolean(_logAsync);
+        proxy = Boolean.parseBoolean(_proxy) || !faults.isEmpty(); // faults need the proxy
+        faults.validate(targetServers.length, faultsRepeatMillis);
+        outgoingQueuePercent = _outgoingQueuePercent;
+        int mmiq = (int)((long)targetTps * outgoingQueuePercent / 100); // percent of target tps
         maxMessagesInOutgoingQueue = Math.max(mmiq, Options.DEFAULT_MAX_MESSAGES_IN_OUTGOING_QUEUE);
+        //noinspection DataFlowIssue
+        backpressure = BackpressurePublisher.Mode.parse(_backpressure);
+        backpressureHighPercent = _backpressureHighPercent;
+        backpressureLowPercent = _backpressureLowPercent;
+        if (backpressureLowPercent < 0 || backpressureLowPercent > backpressureHighPercent || backpressureHighPercent > 100) {
+            throw new IllegalArgumentException("Backpressure percents must be 0 <= low <= high <= 100.");
+        }
+        backpressureMaxWaitMillis = Math.max(0, _backpressureMaxWaitMillis);
+        queueSampleMicros = Math.max(0, _queueSampleMicros);
+
+        // the proxies bind ports, so they are made after everything that can reject the options
+        if (proxy) {
+            // the clients only ever see the proxy urls, the proxies connect to the real servers
+            servers = new String[targetServers.length];
+            try {
+                for (int ix = 0; ix < targetServers.length; ix++) {
+                    FaultProxy fp = new FaultProxy("PROXY-" + ix, targetServers[ix]);
+                    proxies.add(fp);
+                    servers[ix] = fp.getUrl();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                for (FaultProxy fp : proxies) {
+                    fp.close();
+                }
+                throw e;
+            }
+        }
+        else {
+            servers = targetServers;
+        }
 
         log("TPS", "----- Application Options -----");
-        log("TPS", "Servers", servers);
+        log("TPS", "Servers", targetServers);
         log("TPS", "Target TPS", targetTps);
         log("TPS", "Payload Size", payloadSize);
         log("TPS", "Num Receivers", numReceivers);
+        log("TPS", "Num Senders", numSenders);
         log("TPS", "Send Buffer Size", sendBufferSize);
+        log("TPS", "Outgoing Queue Percent", outgoingQueuePercent);
         log("TPS", "Max Messages In Outgoing Queue", maxMessagesInOutgoingQueue);
         log("TPS", "Connection Timeout Millis", connectionTimeoutMillis);
+        log("TPS", "Id Mode", idMode);
+        log("TPS", "Schedule", schedule);
+        log("TPS", "Proxy", proxy);
+        for (int ix = 0; ix < proxies.size(); ix++) {
+            log("TPS", "Proxy %s: %s -> %s", ix, servers[ix], targetServers[ix]);
+        }
+        log("TPS", "Faults", faults);
+        log("TPS", "Faults Repeat Millis", faultsRepeatMillis);
+        log("TPS", "Soak Millis", soakMillis);
+        log("TPS", "Receive Timeout Millis", receiveTimeoutMillis);
+        log("TPS", "Finish Wait Millis", finishWaitMillis);
+        log("TPS", "Warmup Millis", warmupMillis);
+        log("TPS", "Receiver Model", receiverModel);
+        log("TPS", "Receiver Dispatchers", receiverDispatchers);
+        log("TPS", "Receiver Subscriptions", receiverSubscriptions);
+        log("TPS", "Handler Threads", handlerThreads);
+        log("TPS", "Handler Cost Micros", _handlerCostMicros);
+        log("TPS", "Handler Queue", handlerQueue);
+        log("TPS", "Timeline File", timelineFile.isEmpty() ? "none" : timelineFile);
+        log("TPS", "Timeline Format", timelineFormat);
+        log("TPS", "Timeline Flush Seconds", timelineFlushSeconds);
+        log("TPS", "Log Level", _logLevel);
+        log("TPS", "Log Async", logAsync);
+        log("TPS", "Backpressure", backpressure);
+        log("TPS", "Backpressure High Percent", backpressureHighPercent);
+        log("TPS", "Backpressure Low Percent", backpressureLowPercent);
+        log("TPS", "Backpressure Max Wait Millis", backpressureMaxWaitMillis);
+        log("TPS", "Queue Sample Micros", queueSampleMicros == 0 ? "off" : queueSampleMicros);
 
         reportSocketBufferSize();
     }
 
-    public void run() throws InterruptedException {
+    public CmlResult run() throws InterruptedException {
         scheduler = Executors.newScheduledThreadPool(1);
+        if (logAsync) {
+            Debug.startAsync(AsyncDebugPrinter.DEFAULT_CAPACITY);
+        }
         try {
+            for (FaultProxy fp : proxies) {
+                fp.start();
+            }
 
+            for (int sx = 0; sx < numSenders; sx++) {
+                senders.add(new Sender(sx, numReceivers * lanesPerReceiver));
+            }
             for (int ix = 0; ix < numReceivers; ix++) {
-                receivers.add(new Receiver());
+                receivers.add(new Receiver(senders, lanesPerReceiver,
+                    Math.max(handlerThreads, Runtime.getRuntime().availableProcessors())));
+            }
+            if (!timelineFile.isEmpty()) {
+                startTimeline();
             }
 
             // Receiver threads
@@ -134,17 +382,14 @@ public class CoreMessageLoss {
                 }
             }
 
-            // Receivers periodic reporting
+            // Receivers periodic reporting. Both tasks run on the single scheduler thread
+            // and only read the snapshot the per-second sampler took, never the hot counters.
             scheduler.scheduleAtFixedRate(
                 () -> {
-                    long receivedMessages = 0;
-                    for (int ix = 0; ix < numReceivers; ix++) {
-                        long rm = receivers.get(ix).receivedMessages;
-                        receivedMessages += rm;
-                    }
-                    log(TPS_RECEIVER, "Total Received Messages: %s", receivedMessages, "Highest Message Id Received: %s", highestMessageId.get());
-                    if (System.currentTimeMillis() - lastReceive.get() > WAIT_FOR_MESSAGES) {
-                        log(TPS_RECEIVER, "RECEIVER TIMEOUT: %s", System.currentTimeMillis() - lastReceive.get());
+                    log(TPS_RECEIVER, "Total Received Messages: %s", sampledReceivedMessages(), "Highest Message Id Received: %s", highestMessageId.get());
+                    long sinceLastReceive = System.currentTimeMillis() - sampledLastReceive;
+                    if (sinceLastReceive > receiveTimeoutMillis && System.currentTimeMillis() > soakEndMillis) {
+                        warn(TPS_RECEIVER, "RECEIVER TIMEOUT: %s", sinceLastReceive);
                         for (Receiver r : receivers) {
                             r.done.set(true);
                         }
@@ -154,71 +399,315 @@ public class CoreMessageLoss {
 
             scheduler.scheduleAtFixedRate(
                 () -> {
-                    long receivedMessages = 0;
-                    for (int ix = 0; ix < numReceivers; ix++) {
-                        long rm = receivers.get(ix).receivedMessages;
-                        receivedMessages += rm;
-                    }
-                    log(TPS_RECEIVER, "Total Received Messages: %s", receivedMessages);
+                    sampleReceivers();
+                    sampleTimeline();
+                    log(TPS_RECEIVER, "Total Received Messages: %s", sampledReceivedMessages());
                 },
                 1, 1, TimeUnit.SECONDS);
 
-            // Sender thread
-            Thread s = new Thread(() -> {
-                try {
-                    send();
-                }
-                catch (Exception ignored) {
-                }
-            });
-            s.setName("S-main");
-            s.start();
+            scheduler.scheduleAtFixedRate(this::sampleSenders, 100, 100, TimeUnit.MILLISECONDS);
+
+            // Faults are timed from when the senders start
+            faults.start(scheduler, proxies, faultsRepeatMillis);
+            if (soak) {
+                soakEndMillis = System.currentTimeMillis() + soakMillis;
+            }
+            measureStartNanos = System.nanoTime() + warmupMillis * 1_000_000;
+
+            // Sender threads
+            List<Thread> senderThreads = new ArrayList<>();
+            for (int sx = 0; sx < numSenders; sx++) {
+                int finalSx = sx;
+                Thread s = new Thread(() -> {
+                    try {
+                        send(finalSx);
+                    }
+                    catch (Exception ignored) {
+                    }
+                });
+                s.setName("S-" + sx + "-main");
+                s.start();
+                senderThreads.add(s);
+            }
 
             // wait for all the threads to finish
-            s.join();
+            for (Thread t : senderThreads) {
+                t.join();
+            }
             for (Thread t : threads) {
                 t.join();
             }
 
             sleep(100); // give callbacks time to finish
+            Debug.stopAsync(); // the log is printed before the report
 
             reportSocketBufferSize();
             reportReceivers();
             reportSenders();
+            reportProxies();
+            return result();
         }
         finally {
             if (!scheduler.isShutdown()) {
                 scheduler.shutdownNow();
             }
+            Debug.stopAsync();
+            if (timeline != null) {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS); // let a flush in progress finish
+                flushTimeline();
+                log("TPS", "Timeline", timeline.getFile());
+            }
+            for (FaultProxy fp : proxies) {
+                fp.close();
+            }
         }
     }
 
     private void reportReceivers() {
-        List<Long> receivedMessageIds = new ArrayList<>();
-        messageIdsTrackingQueue.drainTo(receivedMessageIds);
-        receivedMessageIds.sort(Long::compareTo);
-
         System.out.println("\n" + TPS_RECEIVER);
         long receivedMessages = 0;
         for (int ix = 0; ix < numReceivers; ix++) {
-            long rm = receivers.get(ix).receivedMessages;
+            Receiver r = receivers.get(ix);
+            long rm = r.receivedMessages();
             receivedMessages += rm;
-            System.out.println(stringify("  Receiver %s Received Messages:  %s", ix, formatRight(rm, 7)));
+            System.out.println(stringify("  Receiver %s Received Messages:  %s  Peak %s/sec", ix, formatRight(rm, 7), format(r.rate.peak())));
         }
         System.out.println("  ------------------------------ -------");
         System.out.println(stringify("  Total Received Messages:       %s", formatRight(receivedMessages, 7)));
 
-        long expected = receivedMessageIds.get(0);
-        for (Long mid : receivedMessageIds) {
-            if (mid != expected) {
-                System.out.println(stringify("\n  Received Gap Message: %s", format(mid)));
-                System.out.println(stringify("  Expected Gap Message: %s", format(expected)));
-                long diff = mid - expected;
+        System.out.println(stringify("\n  Receiver Model: %s, Dispatchers %s, Subscriptions %s, Handler Threads %s, Handler Cost %s us, Handler Queue %s",
+            receiverModel, receiverDispatchers, receiverSubscriptions, handlerThreads, handlerCostNanos / 1000, handlerQueue));
+        System.out.println("             Avg/sec   Peak/sec  Max Pending  Max Backlog   Dropped  Slow Consumers | Handled Avg/sec   Peak/sec  Rejected");
+        for (int ix = 0; ix < numReceivers; ix++) {
+            Receiver r = receivers.get(ix);
+            long dropped = 0;
+            for (Consumer c : r.consumers) {
+                dropped += c.getDroppedCount();
+            }
+            System.out.println(stringify("  Receiver %s %s %s %s %s %s %s | %s %s %s",
+                ix, formatRight(averageRate(r.rate), 10), formatRight(r.rate.peak(), 10),
+                formatRight(r.maxPending, 12), formatRight(r.maxBacklog, 12),
+                formatRight(dropped, 9), formatRight(r.receiveEL.slowConsumers.get(), 15),
+                formatRight(averageRate(r.handledRate), 15), formatRight(r.handledRate.peak(), 10),
+                formatRight(r.rejected.sum(), 9)));
+        }
+        if (receiverModel == ReceiverModel.Executor || receiverModel == ReceiverModel.Virtual) {
+            System.out.println("\n  Handler Completion, from receive to the end of the handed off handler...");
+            for (int ix = 0; ix < numReceivers; ix++) {
+                printLatency("Receiver " + ix, receivers.get(ix).handlerLatency.snapshot());
+            }
+        }
+
+        for (Sender sender : senders) {
+            MessageIdTracker idTracker = sender.idTracker;
+            for (Receiver r : receivers) {
+                for (Lane lane : r.lanes) {
+                    lane.idTrackers[sender.id].finish(sender.pubId.get());
+                }
+            }
+            idTracker.finish(sender.pubId.get());
+
+            System.out.println(stringify("\n  Sender %s Received vs Published Messages: %s vs %s ... %s",
+                sender.id, format(idTracker.getReceived()), format(sender.pubId.get()), format(idTracker.getMissing())));
+            for (int gx = 0; gx < idTracker.getGapCount(); gx++) {
+                long start = idTracker.getGapStart(gx);
+                long end = idTracker.getGapEnd(gx);
+                long diff = end - start + 1;
+                if (end < idTracker.getHighest()) {
+                    System.out.println(stringify("\n  Received Gap Message: %s", format(end + 1)));
+                }
+                else {
+                    System.out.println("\n  Received Gap Message: <none, end of run>");
+                }
+                System.out.println(stringify("  Expected Gap Message: %s", format(start)));
                 System.out.println(stringify("  Gap: %s", diff));
                 System.out.println(stringify("  Gap Bytes (Approximate): %s", format(diff * payloadSize)));
             }
-            expected = mid + 1;
+
+            System.out.println("\n  Duplicates  Reordered     Late | Reorder Distance p50 / p99 / max");
+            long[] all = new long[3];
+            LogHistogram allDistance = new LogHistogram();
+            List<String> receiverLines = new ArrayList<>();
+            for (int ix = 0; ix < numReceivers; ix++) {
+                long[] counts = new long[3];
+                LogHistogram distance = new LogHistogram();
+                for (Lane lane : receivers.get(ix).lanes) {
+                    MessageIdTracker lt = lane.idTrackers[sender.id];
+                    counts[0] += lt.getDuplicates();
+                    counts[1] += lt.getReordered();
+                    counts[2] += lt.getLate();
+                    distance.add(lt.getReorderDistance());
+                }
+                for (int cx = 0; cx < all.length; cx++) {
+                    all[cx] += counts[cx];
+                }
+                allDistance.add(distance);
+                receiverLines.add(ordering("Receiver " + ix, counts, distance));
+            }
+            all[0] += idTracker.getDuplicates();
+            all[2] = idTracker.getLate(); // a lane's late ids are handed on, only the sender's tracker knows if they still were
+            System.out.println(ordering("All Receivers", all, allDistance));
+            for (String line : receiverLines) {
+                System.out.println(line);
+            }
+            System.out.println(stringify("  Duplicates Delivered To Different Subscriptions: %s",
+                format(idTracker.getDuplicates())));
+        }
+        if (unknownSenderMessages.sum() > 0) {
+            System.out.println(stringify("\n  Messages Without A Known Sender: %s", format(unknownSenderMessages.sum())));
         }
+
+        if (soak) {
+            reportCycles();
+            return;
+        }
+
+        CmlLatency latency = new CmlLatency();
+        CmlLatency latency2 = new CmlLatency();
+        for (Receiver r : receivers) {
+            for (Lane lane : r.lanes) {
+                latency.add(lane.latency);
+                latency2.add(lane.latency2);
+            }
+        }
+        System.out.println("\n  Latency Before Disconnect...");
+        printLatency(latency);
+        System.out.println("  Latency After Disconnect...");
+        printLatency(latency2);
+    }
+
+    private CmlResult result() {
+        long published = 0;
+        long missing = 0;
+        long rate = 0;
+        CmlLatency latency = new CmlLatency();
+        for (Sender sender : senders) {
+            published += sender.pubId.get();
+            missing += sender.idTracker.getMissing();
+            rate += sender.publishRate();
+            if (soak) {
+                latency.add(sender.cycles.getRollup());
+            }
+        }
+        if (!soak) {
+            for (Receiver r : receivers) {
+                for (Lane lane : r.lanes) {
+                    latency.add(lane.latency);
+                    latency.add(lane.latency2);
+                }
+            }
+        }
+        if (warmupMillis > 0) {
+            // only the steady state counts
+            latency = new CmlLatency();
+            for (Receiver r : receivers) {
+                for (Lane lane : r.lanes) {
+                    latency.add(lane.steady);
+                }
+            }
+        }
+        long slowConsumers = 0;
+        long receiverDisconnects = 0;
+        long maxOutgoingPending = 0;
+        for (Receiver r : receivers) {
+            slowConsumers += r.receiveEL.slowConsumers.get();
+            if (r.receiveCL.disconnected.get()) {
+                receiverDisconnects++;
+            }
+        }
+        for (Sender sender : senders) {
+            slowConsumers += sender.sendEL.slowConsumers.get();
+            maxOutgoingPending = Math.max(maxOutgoingPending, sender.maxOutgoingPending);
+        }
+        long backpressureWaitNanos = 0;
+        for (Sender sender : senders) {
+            if (sender.backpressure != null) {
+                backpressureWaitNanos += sender.backpressure.getWaitNanos();
+            }
+        }
+        return new CmlResult(sendBufferSize, payloadSize, targetTps, outgoingQueuePercent, maxMessagesInOutgoingQueue,
+            published, missing, rate, latency, slowConsumers, receiverDisconnects, maxOutgoingPending,
+            backpressure, backpressureWaitNanos);
+    }
+
+    /**
+     * @param counts duplicates, reordered and late
+     */
+    private static String ordering(String label, long[] counts, LogHistogram distance) {
+        return stringify("  %s %s %s | %s / %s / %s   %s",
+            formatRight(counts[0], 10), formatRight(counts[1], 10), formatRight(counts[2], 8),
+            format(distance.getValueAtPercentile(50)), format(distance.getValueAtPercentile(99)), format(distance.getMax()),
+            label);
+    }
+
+    private void reportCycles() {
+        for (Sender sender : senders) {
+            CmlCycles cycles = sender.cycles;
+            cycles.assignMissing(sender.idTracker);
+            System.out.println(stringify("\n  Sender %s Cycles...", sender.id));
+            System.out.println("   Cycle  Millis   Published    Received   Missing   Rate/sec | Intended p50      p99    p99.9      max (ms) | Actual p99");
+            long published = 0;
+            long received = 0;
+            long missing = 0;
+            long millis = 0;
+            for (CmlCycle c : cycles.getCycles()) {
+                published += c.getPublished();
+                received += c.getReceived();
+                missing += c.getMissing();
+                millis += c.getDurationMillis();
+                printCycle(formatRight(c.number, 8), c.getDurationMillis(), c.getPublished(), c.getReceived(), c.getMissing());
+                System.out.println(stringify(" | %s %s %s %s | %s",
+                    formatRight3(c.getIntendedP50()), formatRight3(c.getIntendedP99()),
+                    formatRight3(c.getIntendedP999()), formatRight3(c.getIntendedMax()),
+                    formatRight3(c.getActualP99())));
+            }
+            System.out.println("  ------------------------------------------------------------");
+            printCycle("  Total ", millis, published, received, missing);
+            System.out.println();
+            System.out.println("  Latency Rolled Up...");
+            printLatency(cycles.getRollup());
+        }
+    }
+
+    private void printCycle(String label, long millis, long published, long received, long missing) {
+        System.out.print(stringify("%s %s %s %s %s %s",
+            label, formatRight(millis, 7), formatRight(published, 11), formatRight(received, 11),
+            formatRight(missing, 9), formatRight(millis == 0 ? 0 : published * 1000 / millis, 10)));
+    }
+
+    private static String formatRight3(long nanos) {
+        return String.format("%8s", millis(nanos));
+    }
+
+    private void printLatency(CmlLatency latency) {
+        System.out.println(stringify("    Count: %s", format(latency.actual.getCount())));
+        printLatency("From Actual Send Time  ", latency.actual);
+        printLatency("From Intended Send Time", latency.intended);
+    }
+
+    private void printLatency(String label, LogHistogram h) {
+        System.out.println(stringify("    " + label + " p50 / p99 / p99.9 / max (ms): %s / %s / %s / %s",
+            millis(h.getValueAtPercentile(50)),
+            millis(h.getValueAtPercentile(99)),
+            millis(h.getValueAtPercentile(99.9)),
+            millis(h.getMax())));
+    }
+
+    private static String millis(long nanos) {
+        return format3(nanos / 1_000_000.0);
+    }
+
+    /**
+     * The average over the seconds that had any
+     */
+    private static long averageRate(TimeSeries rate) {
+        long seconds = 0;
+        for (int ix = 0; ix < rate.size(); ix++) {
+            if (rate.get(ix) > 0) {
+                seconds++;
+            }
+        }
+        return seconds == 0 ? 0 : rate.total() / seconds;
     }
 
     private void reportSenders() {
@@ -226,17 +715,80 @@ public class CoreMessageLoss {
         // Report Sender
         // ----------------------------------------------------------------------------------------------------
         System.out.println("\n" + TPS_SENDER);
-        System.out.println("Before Disconnect...");
-        printSendResultAndDiff("Buffered vs Socket Messages",
-            sendStats.pay.bufferedMessages, sendStats.pay.writtenMessages);
-        printSendResultAndDiff("Buffered vs Socket Bytes   ",
-            sendStats.pay.bufferedBytes, sendStats.pay.writtenBytes);
+        System.out.println(stringify("Id Mode: %s", idMode));
+        System.out.println(stringify("Schedule: %s", schedule));
+        long totalRate = 0;
+        for (Sender sender : senders) {
+            System.out.println(stringify("Sender %s...", sender.id));
+            long rate = sender.publishRate();
+            totalRate += rate;
+            printSendResult(soak ? "Published                  " : "Published Before Disconnect", sender.sendLoopMessages);
+            printSendResult("Publish Rate (msgs/sec)    ", rate);
+            printSendResult("Average Publish Call (ns)  ", sender.sendLoopMessages == 0 ? 0 : sender.publishCallNanos / sender.sendLoopMessages);
+            printSendResult("Publish Errors             ", sender.publishErrors);
+            if (sender.pacer != null) {
+                LogHistogram lag = sender.pacer.getLag();
+                System.out.println(stringify("  Schedule Lag p50 / p99 / p99.9 / max (ms): %s / %s / %s / %s",
+                    millis(lag.getValueAtPercentile(50)),
+                    millis(lag.getValueAtPercentile(99)),
+                    millis(lag.getValueAtPercentile(99.9)),
+                    millis(lag.getMax())));
+                printSendResult("Sends Behind Schedule      ", sender.pacer.getBehind());
+            }
+            if (sender.queueSampler != null) {
+                printQueue("Outgoing Queue Messages", sender.queueSampler.getMessages());
+                printQueue("Outgoing Queue Bytes   ", sender.queueSampler.getBytes());
+            }
+            BackpressurePublisher bp = sender.backpressure;
+            if (bp != null) {
+                printSendResult("Backpressure Waits         ", bp.getWaits());
+                printSendResult("Backpressure Timeouts      ", bp.getTimeouts());
+                System.out.println(stringify("  Backpressure Wait Total / Max (ms): %s / %s",
+                    millis(bp.getWaitNanos()), millis(bp.getMaxWaitNanos())));
+            }
+            if (sender.payloadRing != null) {
+                printSendResult("Payload Ring Slots         ", sender.payloadRing.getSlots());
+                printSendResult("Payload Ring Overflows     ", sender.payloadRing.getAllocated());
+            }
+            for (CmlStatsCollector.Epoch epoch : sender.sendStats.getEpochs()) {
+                System.out.println(stringify("Epoch %s, started by %s, ended by %s...",
+                    epoch.number, epoch.startedBy, epoch.endedBy == null ? "end of run" : epoch.endedBy));
+                printSendResultAndDiff("Buffered vs Socket Messages",
+                    epoch.pay.bufferedMessages.get(), epoch.pay.writtenMessages.get());
+                printSendResultAndDiff("Buffered vs Socket Bytes   ",
+                    epoch.pay.bufferedBytes.get(), epoch.pay.writtenBytes.get());
+                if (epoch.endedByDisconnect()) {
+                    printSendResult("Buffered, Never Written Messages", epoch.strandedMessages());
+                    printSendResult("Buffered, Never Written Bytes   ", epoch.strandedBytes());
+                }
+            }
+        }
+        if (senders.size() > 1) {
+            System.out.println(stringify("Total Publish Rate (msgs/sec): %s", format(totalRate)));
+        }
+    }
 
-        System.out.println("After Disconnect...");
-        printSendResultAndDiff("Buffered vs Socket Messages",
-            sendStats.pay2.bufferedMessages, sendStats.pay2.writtenMessages);
-        printSendResultAndDiff("Buffered vs Socket Bytes   ",
-            sendStats.pay2.bufferedBytes, sendStats.pay2.writtenBytes);
+    private void printQueue(String label, LogHistogram h) {
+        System.out.println(stringify("  " + label + " p50 / p99 / p99.9 / max: %s / %s / %s / %s  (%s samples)",
+            format(h.getValueAtPercentile(50)),
+            format(h.getValueAtPercentile(99)),
+            format(h.getValueAtPercentile(99.9)),
+            format(h.getMax()),
+            format(h.getCount())));
+    }
+
+    private void reportProxies() {
+        if (proxies.isEmpty()) {
+            return;
+        }
+        System.out.println("\nPROXY");
+        System.out.println(stringify("Faults: %s", faults));
+        for (int ix = 0; ix < proxies.size(); ix++) {
+            FaultProxy fp = proxies.get(ix);
+            System.out.println(stringify("Proxy %s to %s...", ix, fp.getTarget()));
+            printSendResult("Relayed Bytes", fp.getRelayedBytes());
+            printSendResult("Dropped Bytes", fp.getDroppedBytes());
+        }
     }
 
     private void printSendResult(String s, Number n) {
@@ -251,19 +803,56 @@ public class CoreMessageLoss {
     // ----------------------------------------------------------------------------------------------------
     // Sender
     // ----------------------------------------------------------------------------------------------------
-    AtomicLong pubId;
-    CmlStatsCollector sendStats;
-    CmlConnectionListener sendCL;
-    CmlErrorListener sendEL;
+    static class Sender {
+        final int id;
+        final String label;
+        final AtomicLong pubId = new AtomicLong(0);
+        final MessageIdTracker idTracker = new MessageIdTracker(1, MessageIdTracker.UNION_WINDOW_SIZE, true); // fed by the lanes' trackers
+        CmlStatsCollector sendStats;
+        CmlConnectionListener sendCL;
+        CmlErrorListener sendEL;
+        PayloadRing payloadRing;
+        RatePacer pacer;
+        OutgoingQueueSampler queueSampler;
+        BackpressurePublisher backpressure; // null when publishing raw
+        long sendLoopNanos;
+        long sendLoopMessages;
+        long publishCallNanos;
+        long publishErrors;
+        volatile Connection connection;
+        volatile long maxOutgoingPending; // after the warmup, only touched by the sampler
+        long sampledPubId; // only touched by the timeline sampler
+        long sampledSocketWrites; // only touched by the timeline sampler
+        long sampledSocketBytes; // only touched by the timeline sampler
+        volatile boolean afterDisconnect = false;
+        final CmlCycles cycles;
 
-    private void send() throws IOException, InterruptedException {
-        pubId = new AtomicLong(0);
-        sendStats = new CmlStatsCollector(payloadSize);
+        Sender(int id, int numReceivers) {
+            this.id = id;
+            label = TPS_SENDER + "-" + id;
+            cycles = new CmlCycles(label, numReceivers);
+        }
 
-        sendCL = new CmlConnectionListener(TPS_SENDER, servers, false);
-        sendEL = new CmlErrorListener(TPS_SENDER);
+        long publishRate() {
+            long loopMillis = sendLoopNanos / 1_000_000;
+            return loopMillis == 0 ? 0 : sendLoopMessages * 1000 / loopMillis;
+        }
+    }
 
-        Options options  = new Options.Builder()
+    List<Sender> senders = new ArrayList<>();
+
+    private void send(int sx) throws IOException, InterruptedException {
+        Sender sender = senders.get(sx);
+        String label = sender.label;
+        AtomicLong pubId = sender.pubId;
+        CmlStatsCollector sendStats = new CmlStatsCollector(payloadSize);
+        CmlConnectionListener sendCL = new CmlConnectionListener(label, servers, false, sendStats, timeline);
+        CmlErrorListener sendEL = new CmlErrorListener(label);
+        sender.sendStats = sendStats;
+        sender.sendCL = sendCL;
+        sender.sendEL = sendEL;
+
+        Options.Builder builder = new Options.Builder()
             .servers(servers)
             .ignoreDiscoveredServers()
             .noRandomize()
@@ -272,77 +861,142 @@ public class CoreMessageLoss {
             .maxMessagesInOutgoingQueue(maxMessagesInOutgoingQueue)
             .statisticsCollector(sendStats)
             .connectionListener(sendCL)
-            .errorListener(sendEL)
-            .build();
+            .errorListener(sendEL);
+        if (soak) {
+            builder.maxReconnects(-1); // a soak has to survive every outage
+        }
+        Options options = builder.build();
 
+        OutgoingQueueSampler queueSampler = null;
         try (Connection nc = Nats.connect(options)) {
+            sender.connection = nc;
+            if (queueSampleMicros > 0) {
+                // keep about a second of samples for the per second log
+                queueSampler = new OutgoingQueueSampler(label, nc, queueSampleMicros, (int)Math.max(1, 1_000_000 / queueSampleMicros));
+                sender.queueSampler = queueSampler;
+                queueSampler.start();
+            }
+            BackpressurePublisher bp = null;
+            if (backpressure != BackpressurePublisher.Mode.None) {
+                bp = new BackpressurePublisher(nc, backpressure,
+                    (long)maxMessagesInOutgoingQueue * backpressureHighPercent / 100,
+                    (long)maxMessagesInOutgoingQueue * backpressureLowPercent / 100,
+                    backpressureMaxWaitMillis);
+                sender.backpressure = bp;
+            }
             byte[] payload = new byte[payloadSize];
             Headers h = new Headers();
+            h.put(SENDER_ID_KEY, sender.id + "");
+            PayloadRing payloadRing = null;
+            if (idMode == IdMode.Binary) {
+                payloadRing = new PayloadRing(payloadSize, sendStats.payloadsBuffered);
+                sender.payloadRing = payloadRing;
+            }
 
-            long currentSecond = -1;
+            RatePacer pacer = new RatePacer(targetTps, schedule);
+            sender.pacer = pacer;
+            long startNanos = pacer.start();
+            long nextSecondStart = startNanos + 1_000_000_000L;
             long messagesThisSecond = 0;
-            long nextSecondStart = -1;
-            long startNanos = System.nanoTime();
+            long soakEndNanos = startNanos + soakMillis * 1_000_000;
+            CmlStatsCollector.Epoch epoch = sendStats.currentEpoch();
+            CmlCycles cycles = sender.cycles;
+            if (soak) {
+                cycles.start(pubId.get() + 1);
+            }
+            boolean failing = false;
 
-            while (nc.getStatus() == Connection.Status.CONNECTED
-                && !sendEL.connectionException.get() && !sendCL.disconnected.get())
+            while (soak
+                ? System.nanoTime() - soakEndNanos < 0 && nc.getStatus() != Connection.Status.CLOSED
+                : nc.getStatus() == Connection.Status.CONNECTED && !sendEL.connectionException.get() && !sendCL.disconnected.get())
             {
+                long intended = pacer.awaitNext();
+
+                // In a soak, every reconnect starts the next cycle
+                if (soak) {
+                    CmlStatsCollector.Epoch e = sendStats.currentEpoch();
+                    if (e != epoch) {
+                        epoch = e;
+                        if (CmlStatsCollector.RECONNECTED.equals(e.startedBy)) {
+                            cycles.start(pubId.get() + 1);
+                        }
+                    }
+                }
+
                 // Check if we've moved to a new second
                 long now = System.nanoTime();
                 if (now >= nextSecondStart) {
                     if (messagesThisSecond > 0) {
-                        log(TPS_SENDER, "Messages Last Second: " + messagesThisSecond);
+                        log(label, "Messages Last Second: %s", messagesThisSecond);
+                    }
+                    if (queueSampler != null && Debug.isEnabled(Debug.LEVEL_DEBUG)) {
+                        Debug.debug(label, "Outgoing Queue Last Second: %s", queueSampler.window());
                     }
-                    currentSecond++;
                     messagesThisSecond = 0;
-                    nextSecondStart = startNanos + ((currentSecond + 1) * 1_000_000_000L);
+                    while (nextSecondStart <= now) {
+                        nextSecondStart += 1_000_000_000L;
+                    }
                 }
 
-                // Only send if we haven't hit the target for this second
-                if (messagesThisSecond < targetTps) {
-                    try {
-                        h.put(MESSAGE_ID_KEY, pubId.incrementAndGet() + "");
+                // Waiting for the queue to drain is part of the latency, the intended time stays as it was
+                if (bp != null && bp.await() > 0) {
+                    now = System.nanoTime();
+                }
+
+                try {
+                    long id = pubId.incrementAndGet();
+                    if (payloadRing == null) {
+                        h.put(MESSAGE_ID_KEY, id + "");
+                        h.put(SEND_TIME_KEY, now + "");
+                        h.put(INTENDED_TIME_KEY, intended + "");
                         nc.publish(TEST_SUBJECT, h, payload);
-                        messagesThisSecond++;
-
-                        // Calculate sleep time to maintain even distribution
-                        long remainingInSecond = nextSecondStart - System.nanoTime();
-                        long remainingMessages = targetTps - messagesThisSecond;
-                        if (remainingMessages > 0 && remainingInSecond > 0) {
-                            long sleepTime = remainingInSecond / (remainingMessages + 1);
-                            if (sleepTime > 100_000) { // Only sleep if more than 100 microseconds
-                                sleep(sleepTime / 1_000_000, (int) (sleepTime % 1_000_000));
-                            }
-                        }
                     }
-                    catch (Exception e) {
-                        log(TPS_SENDER, "Error sending message id %s during test: %s", pubId.get(), e.getMessage());
-                        pubId.decrementAndGet();
+                    else {
+                        byte[] p = payloadRing.next();
+                        writeBinaryFields(p, id, now, intended, sender.id);
+                        nc.publish(TEST_SUBJECT, p);
+                        payloadRing.published();
                     }
+                    sender.publishCallNanos += System.nanoTime() - now;
+                    messagesThisSecond++;
+                    failing = false;
                 }
-                else {
-                    // Wait for next second if we've hit the target for this second
-                    long sleepTime = nextSecondStart - System.nanoTime();
-                    if (sleepTime > 0) {
-                        sleep(sleepTime / 1_000_000, (int) (sleepTime % 1_000_000));
+                catch (Exception e) {
+                    // only log the first of a run of errors, an outage in a soak fails every publish
+                    if (!failing) {
+                        warn(label, "Error sending message id %s during test: %s", pubId.get(), e.getMessage());
+                        failing = true;
                     }
+                    sender.publishErrors++;
+                    pubId.decrementAndGet();
                 }
             }
 
-            sendStats.pay.debug(TPS_SENDER, "Before Disconnect Payloads");
-
-            sendStats.startPhase2();
+            sender.sendLoopNanos = System.nanoTime() - startNanos;
+            sender.sendLoopMessages = pubId.get();
+            if (soak) {
+                long wait = finishWaitMillis;
+                while (nc.getStatus() != Connection.Status.CONNECTED && wait > 0) {
+                    log(label, "Waiting for Reconnect");
+                    sleep(100);
+                    wait -= 100;
+                }
+            }
+            else {
+                sendStats.getEpochs().get(0).pay.debug(label, "Before Disconnect Payloads");
+                sender.afterDisconnect = true;
 
-            while (!sendCL.reconnected.get()) {
-                log(TPS_SENDER, "Waiting for Reconnect");
-                sleep(10);
+                while (!sendCL.reconnected.get()) {
+                    log(label, "Waiting for Reconnect");
+                    sleep(10);
+                }
             }
 
-            log(TPS_SENDER, "Publishing Control Terminate Message");
+            log(label, "Publishing Control Terminate Message");
             nc.publish(TERMINATE_SUBJECT, null);
 
 
-            long wait = 30000;
+            long wait = finishWaitMillis;
             while (wait > 0) {
                 sleep(100);
                 int notDone = receivers.size();
@@ -356,32 +1010,205 @@ public class CoreMessageLoss {
                 }
                 wait -= 100;
             }
-            log(TPS_SENDER, "Done");
+            if (soak) {
+                cycles.finish(pubId.get());
+            }
+            log(label, "Done");
+        }
+        finally {
+            if (queueSampler != null) {
+                queueSampler.close();
+            }
         }
     }
 
     // ----------------------------------------------------------------------------------------------------
     // Receiver
     // ----------------------------------------------------------------------------------------------------
+    /**
+     * What one receiving thread records. Every lane has a single writer, so none of it needs to be shared.
+     */
+    static class Lane {
+        final MessageIdTracker[] idTrackers; // one per sender, duplicates and reordering as seen by this lane
+        final PaddedCounter receivedMessages = new PaddedCounter();
+        final PaddedCounter lastReceive = new PaddedCounter();
+        final CmlLatency latency = new CmlLatency();
+        final CmlLatency latency2 = new CmlLatency();
+        final CmlLatency steady = new CmlLatency(); // only after the warmup
+
+        Lane(List<Sender> senders) {
+            idTrackers = new MessageIdTracker[senders.size()];
+            for (int sx = 0; sx < idTrackers.length; sx++) {
+                idTrackers[sx] = new MessageIdTracker(1, MessageIdTracker.DEFAULT_WINDOW_SIZE, senders.get(sx).idTracker);
+            }
+        }
+    }
+
     static class Receiver {
-        long receivedMessages;
+        final Lane[] lanes;
+        final TimeSeries rate = new TimeSeries(SERIES_SECONDS);
+        long sampledMessages; // only touched by the sampler
+        long maxPending; // only touched by the sampler
+        long lastPending; // only touched by the sampler
+        long maxBacklog; // only touched by the sampler
+        final List<Consumer> consumers = new CopyOnWriteArrayList<>(); // the dispatchers or sync subscriptions
+        // handoff models only, the handed off task records its own completion
+        final LongAdder handled = new LongAdder();
+        final LongAdder rejected = new LongAdder(); // the handoff was full
+        final StripedHistogram handlerLatency;
+        final TimeSeries handledRate = new TimeSeries(SERIES_SECONDS);
+        long sampledHandled; // only touched by the sampler
+        ExecutorService handoff;
+        Semaphore handoffPermits; // bounds the virtual model, the executor model has a bounded queue
         CmlConnectionListener receiveCL;
         CmlErrorListener receiveEL;
+        AtomicInteger terminates = new AtomicInteger();
         AtomicBoolean ready = new AtomicBoolean(false);
         AtomicBoolean done = new AtomicBoolean(false);
+
+        Receiver(List<Sender> senders, int numLanes, int handlerStripes) {
+            handlerLatency = new StripedHistogram(handlerStripes);
+            lanes = new Lane[numLanes];
+            for (int lx = 0; lx < numLanes; lx++) {
+                lanes[lx] = new Lane(senders);
+            }
+        }
+
+        long receivedMessages() {
+            long total = 0;
+            for (Lane lane : lanes) {
+                total += lane.receivedMessages.get();
+            }
+            return total;
+        }
+
+        long lastReceive() {
+            long last = 0;
+            for (Lane lane : lanes) {
+                last = Math.max(last, lane.lastReceive.get());
+            }
+            return last;
+        }
     }
 
-    AtomicLong highestMessageId = new AtomicLong(0);
-    AtomicLong lastReceive = new AtomicLong(System.currentTimeMillis());
-    LinkedBlockingQueue<Long> messageIdsTrackingQueue = new LinkedBlockingQueue<>();
+    LongAccumulator highestMessageId = new LongAccumulator(Math::max, 0);
+    LongAdder unknownSenderMessages = new LongAdder();
     List<Receiver> receivers = new ArrayList<>();
+    long sampledLastReceive = System.currentTimeMillis(); // only touched by the scheduler thread
+
+    /**
+     * Take the per-second snapshot of every receiver. Runs on the scheduler thread.
+     */
+    private void sampleReceivers() {
+        for (Receiver r : receivers) {
+            long now = r.receivedMessages();
+            r.rate.add(now - r.sampledMessages);
+            r.sampledMessages = now;
+            sampledLastReceive = Math.max(sampledLastReceive, r.lastReceive());
+            long pending = 0;
+            for (Consumer c : r.consumers) {
+                pending += c.getPendingMessageCount();
+            }
+            r.lastPending = pending;
+            r.maxPending = Math.max(r.maxPending, pending);
+            if (r.handoff != null) {
+                long handled = r.handled.sum();
+                r.handledRate.add(handled - r.sampledHandled);
+                r.sampledHandled = handled;
+                r.maxBacklog = Math.max(r.maxBacklog, now - handled - r.rejected.sum());
+            }
+        }
+    }
+
+    /**
+     * Track the highest outgoing queue of each sender after the warmup. Runs on the scheduler thread.
+     */
+    private void sampleSenders() {
+        if (System.nanoTime() - measureStartNanos < 0) {
+            return;
+        }
+        for (Sender sender : senders) {
+            Connection nc = sender.connection;
+            if (nc != null) {
+                sender.maxOutgoingPending = Math.max(sender.maxOutgoingPending, nc.outgoingPendingMessageCount());
+            }
+        }
+    }
+
+    private void startTimeline() {
+        List<String> columns = new ArrayList<>();
+        for (int sx = 0; sx < numSenders; sx++) {
+            columns.add("sender." + sx + ".published");
+            columns.add("sender." + sx + ".outgoing.queue");
+            columns.add("sender." + sx + ".socket.writes");
+            columns.add("sender." + sx + ".socket.bytes");
+        }
+        for (int rx = 0; rx < numReceivers; rx++) {
+            columns.add("receiver." + rx + ".received");
+            columns.add("receiver." + rx + ".pending");
+        }
+        timeline = new CmlTimeline(timelineFile, timelineFormat, columns);
+        for (FaultProxy fp : proxies) {
+            fp.setModeListener((p, m) -> timeline.event(p.getLabel(), "fault " + m));
+        }
+        if (timelineFlushSeconds > 0) {
+            scheduler.scheduleAtFixedRate(this::flushTimeline, timelineFlushSeconds, timelineFlushSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Add the last second to the timeline, per second counts are deltas from the previous sample.
+     * Runs on the scheduler thread, after sampleReceivers.
+     */
+    private void sampleTimeline() {
+        if (timeline == null) {
+            return;
+        }
+        long[] values = new long[numSenders * 4 + numReceivers * 2];
+        int ix = 0;
+        for (Sender sender : senders) {
+            long pubId = sender.pubId.get();
+            values[ix++] = pubId - sender.sampledPubId;
+            sender.sampledPubId = pubId;
+            Connection nc = sender.connection;
+            values[ix++] = nc == null ? 0 : nc.outgoingPendingMessageCount();
+            CmlStatsCollector stats = sender.sendStats;
+            long writes = stats == null ? 0 : stats.socketWrites.get();
+            long bytes = stats == null ? 0 : stats.socketBytes.get();
+            values[ix++] = writes - sender.sampledSocketWrites;
+            values[ix++] = bytes - sender.sampledSocketBytes;
+            sender.sampledSocketWrites = writes;
+            sender.sampledSocketBytes = bytes;
+        }
+        for (Receiver r : receivers) {
+            values[ix++] = r.rate.last();
+            values[ix++] = r.lastPending;
+        }
+        timeline.sample(values);
+    }
+
+    private void flushTimeline() {
+        try {
+            timeline.flush();
+        }
+        catch (IOException e) {
+            log("TPS", "Timeline flush failed", e);
+        }
+    }
+
+    private long sampledReceivedMessages() {
+        long total = 0;
+        for (int ix = 0; ix < numReceivers; ix++) {
+            total += receivers.get(ix).sampledMessages;
+        }
+        return total;
+    }
 
     private void receive(int rx) throws IOException, InterruptedException {
         Receiver r = receivers.get(rx);
-        receivers.add(r);
 
         String label = TPS_RECEIVER + "-" + rx;
-        r.receiveCL = new CmlConnectionListener(label, servers, true);
+        r.receiveCL = new CmlConnectionListener(label, servers, true, null, timeline);
         r.receiveEL = new CmlErrorListener(label);
 
         Options options  = new Options.Builder()
@@ -393,22 +1220,64 @@ public class CoreMessageLoss {
             .errorListener(r.receiveEL)
             .build();
 
+        if (receiverModel == ReceiverModel.Executor) {
+            r.handoff = new ThreadPoolExecutor(handlerThreads, handlerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(handlerQueue),
+                (task, executor) -> {
+                    if (!executor.isShutdown()) {
+                        r.rejected.increment();
+                    }
+                });
+        }
+        else if (receiverModel == ReceiverModel.Virtual) {
+            r.handoff = Executors.newVirtualThreadPerTaskExecutor();
+            r.handoffPermits = new Semaphore(handlerQueue);
+        }
+
         try (Connection nc = Nats.connect(options)) {
-            Dispatcher d = nc.createDispatcher();
-
-            d.subscribe(TEST_SUBJECT, TEST_QUEUE, msg -> {
-                long mid = extractMessageId(msg);
-                messageIdsTrackingQueue.add(mid);
-                highestMessageId.set(Math.max(highestMessageId.get(), mid));
-                lastReceive.set(System.currentTimeMillis());
-                if (++r.receivedMessages == 1) {
-                    log(label, "Started Receiving");
+            if (receiverModel == ReceiverModel.Sync) {
+                for (int sx = 0; sx < receiverSubscriptions; sx++) {
+                    Subscription sub = nc.subscribe(TEST_SUBJECT, TEST_QUEUE);
+                    r.consumers.add(sub);
+                    int lx = sx;
+                    Thread t = new Thread(() -> {
+                        try {
+                            while (!r.done.get() || sub.getPendingMessageCount() > 0) {
+                                Message msg = sub.nextMessage(Duration.ofMillis(100));
+                                if (msg != null) {
+                                    onMessage(r, rx, lx, msg, label);
+                                }
+                            }
+                        }
+                        catch (InterruptedException | IllegalStateException ignored) {
+                            // closed
+                        }
+                    });
+                    t.setName("R-" + rx + "-sync-" + sx);
+                    t.setDaemon(true);
+                    t.start();
                 }
-            });
+            }
+            else {
+                for (int dx = 0; dx < receiverDispatchers; dx++) {
+                    int lx = dx;
+                    MessageHandler handler = msg -> onMessage(r, rx, lx, msg, label);
+                    Dispatcher md = nc.createDispatcher();
+                    r.consumers.add(md);
+                    for (int sx = 0; sx < receiverSubscriptions; sx++) {
+                        md.subscribe(TEST_SUBJECT, TEST_QUEUE, handler);
+                    }
+                }
+            }
 
+            // on the first test dispatcher if there is one, so the terminate comes after the messages before it
+            Dispatcher d = r.consumers.get(0) instanceof Dispatcher ? (Dispatcher)r.consumers.get(0) : nc.createDispatcher();
             d.subscribe(TERMINATE_SUBJECT, msg -> {
-                log(label, "Received Control - Terminate Message.");
-                r.done.set(true);
+                int terminates = r.terminates.incrementAndGet();
+                log(label, "Received Control - Terminate Message %s of %s.", terminates, numSenders);
+                if (terminates >= numSenders) {
+                    r.done.set(true);
+                }
             });
 
             sleep(50);
@@ -416,7 +1285,7 @@ public class CoreMessageLoss {
             log(label, "READY");
 
 
-            long wait = 30000;
+            long wait = soakMillis + finishWaitMillis;
             while (wait > 0) {
                 sleep(100);
                 if (r.done.get()) {
@@ -424,10 +1293,122 @@ public class CoreMessageLoss {
                 }
                 wait -= 100;
             }
+            drain(r);
             log(label, "Done");
         }
     }
 
+    /**
+     * Let the other dispatchers, sync subscriptions and the handoff finish what they already have
+     */
+    private void drain(Receiver r) throws InterruptedException {
+        long wait = finishWaitMillis;
+        while (wait > 0) {
+            long pending = 0;
+            for (Consumer c : r.consumers) {
+                pending += c.getPendingMessageCount();
+            }
+            if (pending == 0) {
+                break;
+            }
+            sleep(100);
+            wait -= 100;
+        }
+        if (r.handoff != null) {
+            r.handoff.shutdown();
+            if (!r.handoff.awaitTermination(Math.max(wait, 0), TimeUnit.MILLISECONDS)) {
+                r.handoff.shutdownNow();
+            }
+        }
+    }
+
+    private void onMessage(Receiver r, int rx, int lx, Message msg, String label) {
+        long received = System.nanoTime();
+        Lane lane = r.lanes[lx];
+        int sid;
+        long mid;
+        long sent;
+        long intended;
+        if (idMode == IdMode.Binary) {
+            sid = extractBinarySenderId(msg);
+            mid = extractBinaryMessageId(msg);
+            sent = extractBinarySendTime(msg);
+            intended = extractBinaryIntendedTime(msg);
+        }
+        else {
+            sid = extractSenderId(msg);
+            mid = extractMessageId(msg);
+            sent = extractSendTime(msg);
+            intended = extractIntendedTime(msg);
+        }
+        if (sid < 0 || sid >= numSenders) {
+            unknownSenderMessages.increment();
+        }
+        else {
+            Sender sender = senders.get(sid);
+            lane.idTrackers[sid].record(mid);
+            if (soak) {
+                sender.cycles.record(mid, rx * lanesPerReceiver + lx, received, sent, intended);
+            }
+            else {
+                (sender.afterDisconnect ? lane.latency2 : lane.latency).record(received, sent, intended);
+            }
+            if (warmupMillis > 0 && received - measureStartNanos >= 0) {
+                lane.steady.record(received, sent, intended);
+            }
+        }
+        highestMessageId.accumulate(mid);
+        lane.lastReceive.set(System.currentTimeMillis());
+        if (lane.receivedMessages.increment() == 1) {
+            log(label, "Started Receiving");
+        }
+
+        // the handler's own work, inline or handed off
+        if (r.handoff == null) {
+            work();
+        }
+        else {
+            Semaphore permits = r.handoffPermits;
+            if (permits != null && !permits.tryAcquire()) {
+                r.rejected.increment();
+                return;
+            }
+            try {
+                r.handoff.execute(() -> {
+                    try {
+                        work();
+                        r.handlerLatency.record(System.nanoTime() - received);
+                        r.handled.increment();
+                    }
+                    finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // shutting down
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stand in for the cost of handling a message, keeps the cpu busy for the handler cost
+     */
+    private void work() {
+        if (handlerCostNanos > 0) {
+            long end = System.nanoTime() + handlerCostNanos;
+            //noinspection StatementWithEmptyBody
+            while (System.nanoTime() - end < 0) {
+                // spin
+            }
+        }
+    }
+
     // ----------------------------------------------------------------------------------------------------
     // Helpers
     // ----------------------------------------------------------------------------------------------------
@@ -0,0 +1,376 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import io.synadia.utils.LogHistogram;
+
+import java.util.Arrays;
+
+/**
+ * Tracks received message ids in a sliding bitmap window and records the gaps as ranges
+ * while messages arrive. Memory is the fixed window plus one entry per gap, so the
+ * number of messages in a run does not matter and the gap list is already in id order.
+ * Ids that arrive after the window has moved past them are counted as late and taken back out of their gap,
+ * so missing only counts ids that never arrived. Ids seen twice are counted as duplicates.
+ * An id that arrives after a higher id is counted as reordered, and how far behind the
+ * highest id it was is recorded as its reorder distance.
+ * A tracker that only sees part of the ids, like one queue group member, can turn gap tracking off
+ * and still count duplicates and reordering.
+ * <p>
+ * Trackers that each see part of the ids can feed a union tracker instead: every word that slides out of their
+ * window is merged into the union's window with {@link #recordWord(long, long)}, and only the union records gaps.
+ * The union is locked once per word a tracker moves past, not once per message, and bits already set in it are
+ * duplicates between the trackers. The union does not see the order of the ids, so it counts no reordering,
+ * and its window is bigger, since the trackers feeding it move past a word at different times.
+ */
+public class MessageIdTracker {
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 20; // ids, 128k of bitmap
+    public static final int UNION_WINDOW_SIZE = DEFAULT_WINDOW_SIZE << 2;
+
+    public static final int RECORDED = 0;
+    public static final int REORDERED = 1;
+    public static final int DUPLICATE = 2;
+    public static final int LATE = 3;
+    public static final int IGNORED = 4; // before the first id, for instance an id that could not be read
+
+    private final long firstId;
+    private final long[] window;
+    private final int words;
+    private final int wordMask;
+    private final boolean trackGaps;
+    private final MessageIdTracker union;
+    private final LogHistogram reorderDistance;
+
+    private long baseWord;
+    private long highest;
+    private long received;
+    private long late;
+    private long duplicates;
+    private long reordered;
+
+    private long openGapStart = -1;
+    private long openGapEnd = -1;
+    private long[] gapStarts = new long[16];
+    private long[] gapEnds = new long[16];
+    private int gapCount;
+    private long missing;
+
+    public MessageIdTracker(long firstId) {
+        this(firstId, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param firstId the first id the sender will use
+     * @param windowSize the number of ids kept in the window, rounded up to a power of 2, minimum 64
+     */
+    public MessageIdTracker(long firstId, int windowSize) {
+        this(firstId, windowSize, true);
+    }
+
+    /**
+     * @param firstId the first id the sender will use
+     * @param windowSize the number of ids kept in the window, rounded up to a power of 2, minimum 64
+     * @param trackGaps whether ids never seen are recorded as gaps
+     */
+    public MessageIdTracker(long firstId, int windowSize, boolean trackGaps) {
+        this(firstId, windowSize, trackGaps, null);
+    }
+
+    /**
+     * @param firstId the first id the sender will use
+     * @param windowSize the number of ids kept in the window, rounded up to a power of 2, minimum 64
+     * @param union the tracker the words are merged into as they leave the window, it records the gaps
+     */
+    public MessageIdTracker(long firstId, int windowSize, MessageIdTracker union) {
+        this(firstId, windowSize, false, union);
+    }
+
+    private MessageIdTracker(long firstId, int windowSize, boolean trackGaps, MessageIdTracker union) {
+        this.firstId = firstId;
+        this.trackGaps = trackGaps;
+        this.union = union;
+        reorderDistance = new LogHistogram();
+        int w = Integer.highestOneBit(Math.max(64, windowSize) - 1) << 1;
+        words = w >>> 6;
+        wordMask = words - 1;
+        window = new long[words];
+        baseWord = firstId >>> 6;
+        highest = firstId - 1;
+    }
+
+    /**
+     * @return RECORDED, REORDERED, DUPLICATE, LATE or IGNORED
+     */
+    public synchronized int record(long id) {
+        if (id < firstId) {
+            return IGNORED;
+        }
+        long word = id >>> 6;
+        if (word < baseWord) {
+            if (trackGaps) {
+                if (!recover(id)) {
+                    duplicates++;
+                    return DUPLICATE;
+                }
+                received++;
+            }
+            else if (union != null) {
+                union.recordWord(word, 1L << (id & 63));
+            }
+            late++;
+            return LATE;
+        }
+        if (word >= baseWord + words) {
+            slideTo(word - words + 1, Long.MAX_VALUE);
+        }
+        int ix = (int)(word & wordMask);
+        long bit = 1L << (id & 63);
+        if ((window[ix] & bit) != 0) {
+            duplicates++;
+            return DUPLICATE;
+        }
+        window[ix] |= bit;
+        received++;
+        if (id > highest) {
+            highest = id;
+            return RECORDED;
+        }
+        reordered++;
+        reorderDistance.record(highest - id);
+        return REORDERED;
+    }
+
+    /**
+     * Merge a word of received ids from a tracker feeding this one
+     * @param word the id divided by 64
+     * @param bits the ids in the word that were received
+     */
+    public synchronized void recordWord(long word, long bits) {
+        if (bits == 0) {
+            return;
+        }
+        if (word < baseWord) {
+            for (long b = bits; b != 0; b &= b - 1) {
+                long id = (word << 6) + Long.numberOfTrailingZeros(b);
+                if (!trackGaps) {
+                    late++;
+                }
+                else if (recover(id)) {
+                    late++;
+                    received++;
+                }
+                else {
+                    duplicates++;
+                }
+            }
+            return;
+        }
+        if (word >= baseWord + words) {
+            slideTo(word - words + 1, Long.MAX_VALUE);
+        }
+        int ix = (int)(word & wordMask);
+        duplicates += Long.bitCount(window[ix] & bits);
+        received += Long.bitCount(bits & ~window[ix]);
+        window[ix] |= bits;
+        long top = (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+        if (top > highest) {
+            highest = top;
+        }
+    }
+
+    /**
+     * Resolve everything still in the window, or hand it to the union. Call once after all messages have been received,
+     * and finish the trackers feeding a union before the union.
+     * @param lastId the last id that was sent, or 0 if not known, in which case the highest received is used
+     */
+    public synchronized void finish(long lastId) {
+        long last = Math.max(lastId, highest);
+        slideTo((last >>> 6) + 1, last);
+        closeGap();
+    }
+
+    public synchronized long getHighest() {
+        return highest;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getLate() {
+        return late;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized long getReordered() {
+        return reordered;
+    }
+
+    /**
+     * How far behind the highest id each reordered id was. Read once all messages have been received.
+     */
+    public LogHistogram getReorderDistance() {
+        return reorderDistance;
+    }
+
+    public synchronized long getMissing() {
+        return missing;
+    }
+
+    public synchronized int getGapCount() {
+        return gapCount;
+    }
+
+    public synchronized long getGapStart(int ix) {
+        return gapStarts[ix];
+    }
+
+    public synchronized long getGapEnd(int ix) {
+        return gapEnds[ix];
+    }
+
+    private void slideTo(long newBaseWord, long limit) {
+        if (newBaseWord <= baseWord) {
+            return;
+        }
+        long ringEnd = Math.min(newBaseWord, baseWord + words);
+        for (long w = baseWord; w < ringEnd; w++) {
+            int ix = (int)(w & wordMask);
+            if (trackGaps) {
+                resolve(w, window[ix], limit);
+            }
+            else if (union != null && window[ix] != 0) {
+                union.recordWord(w, window[ix]);
+            }
+            window[ix] = 0;
+        }
+        if (trackGaps && newBaseWord > ringEnd) {
+            // the jump was bigger than the window, nothing was ever recorded in between
+            missing(ringEnd << 6, (newBaseWord << 6) - 1, limit);
+        }
+        baseWord = newBaseWord;
+    }
+
+    private void resolve(long word, long bits, long limit) {
+        if (bits == -1L) {
+            return;
+        }
+        long first = word << 6;
+        long inv = ~bits;
+        while (inv != 0) {
+            int start = Long.numberOfTrailingZeros(inv);
+            int len = Long.numberOfTrailingZeros(~(inv >>> start));
+            missing(first + start, first + start + len - 1, limit);
+            if (start + len >= 64) {
+                break;
+            }
+            inv &= -1L << (start + len);
+        }
+    }
+
+    private void missing(long from, long to, long limit) {
+        from = Math.max(from, firstId);
+        to = Math.min(to, limit);
+        if (from > to) {
+            return;
+        }
+        missing += to - from + 1;
+        if (openGapStart != -1 && from == openGapEnd + 1) {
+            openGapEnd = to;
+            return;
+        }
+        closeGap();
+        openGapStart = from;
+        openGapEnd = to;
+    }
+
+    /**
+     * Take a late id back out of the gap it was recorded in
+     * @return false if the id was not in a gap, it had already been received
+     */
+    private boolean recover(long id) {
+        if (openGapStart != -1 && id >= openGapStart && id <= openGapEnd) {
+            if (openGapStart == openGapEnd) {
+                openGapStart = -1;
+                openGapEnd = -1;
+            }
+            else if (id == openGapStart) {
+                openGapStart++;
+            }
+            else if (id == openGapEnd) {
+                openGapEnd--;
+            }
+            else {
+                long end = openGapEnd;
+                openGapEnd = id - 1;
+                closeGap();
+                openGapStart = id + 1;
+                openGapEnd = end;
+            }
+            missing--;
+            return true;
+        }
+        // the last gap that starts at or before the id
+        int lo = 0;
+        int hi = gapCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (gapStarts[mid] <= id) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        int gx = hi;
+        if (gx < 0 || id > gapEnds[gx]) {
+            return false;
+        }
+        long start = gapStarts[gx];
+        long end = gapEnds[gx];
+        if (start == end) {
+            System.arraycopy(gapStarts, gx + 1, gapStarts, gx, gapCount - gx - 1);
+            System.arraycopy(gapEnds, gx + 1, gapEnds, gx, gapCount - gx - 1);
+            gapCount--;
+        }
+        else if (id == start) {
+            gapStarts[gx]++;
+        }
+        else if (id == end) {
+            gapEnds[gx]--;
+        }
+        else {
+            if (gapCount == gapStarts.length) {
+                gapStarts = Arrays.copyOf(gapStarts, gapCount * 2);
+                gapEnds = Arrays.copyOf(gapEnds, gapCount * 2);
+            }
+            System.arraycopy(gapStarts, gx + 1, gapStarts, gx + 2, gapCount - gx - 1);
+            System.arraycopy(gapEnds, gx + 1, gapEnds, gx + 2, gapCount - gx - 1);
+            gapEnds[gx] = id - 1;
+            gapStarts[gx + 1] = id + 1;
+            gapEnds[gx + 1] = end;
+            gapCount++;
+        }
+        missing--;
+        return true;
+    }
+
+    private void closeGap() {
+        if (openGapStart == -1) {
+            return;
+        }
+        if (gapCount == gapStarts.length) {
+            gapStarts = Arrays.copyOf(gapStarts, gapCount * 2);
+            gapEnds = Arrays.copyOf(gapEnds, gapCount * 2);
+        }
+        gapStarts[gapCount] = openGapStart;
+        gapEnds[gapCount] = openGapEnd;
+        gapCount++;
+        openGapStart = -1;
+        openGapEnd = -1;
+    }
+}
@@ -0,0 +1,60 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Payload buffers for the binary id mode. The connection keeps a reference to a published
+ * byte array until the writer copies it into the send buffer, so a buffer can only be
+ * written again once the stats collector has counted that many payloads as buffered.
+ * If the writer is too far behind, for instance during a disconnect, a fresh array is
+ * used instead and counted.
+ */
+public class PayloadRing {
+    private static final long RING_BYTES = 16 * 1024 * 1024;
+    private static final int SAFETY = 16;
+
+    private final byte[][] buffers;
+    private final int mask;
+    private final int payloadSize;
+    private final AtomicLong buffered;
+
+    private long published;
+    private long allocated;
+
+    public PayloadRing(int payloadSize, AtomicLong buffered) {
+        this.payloadSize = payloadSize;
+        this.buffered = buffered;
+        int slots = Integer.highestOneBit((int)Math.max(SAFETY * 4, RING_BYTES / payloadSize));
+        buffers = new byte[slots][];
+        for (int ix = 0; ix < slots; ix++) {
+            buffers[ix] = new byte[payloadSize];
+        }
+        mask = slots - 1;
+    }
+
+    public byte[] next() {
+        if (published - buffered.get() < buffers.length - SAFETY) {
+            return buffers[(int)(published & mask)];
+        }
+        allocated++;
+        return new byte[payloadSize];
+    }
+
+    /**
+     * Call after the buffer returned by next() was successfully published.
+     */
+    public void published() {
+        published++;
+    }
+
+    public int getSlots() {
+        return buffers.length;
+    }
+
+    public long getAllocated() {
+        return allocated;
+    }
+}
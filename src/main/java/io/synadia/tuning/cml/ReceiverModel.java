@@ -0,0 +1,20 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.cml;
+
+public enum ReceiverModel {
+    Dispatcher, // the handler runs on the dispatcher thread
+    Sync,       // a thread per subscription loops on nextMessage
+    Executor,   // the dispatcher hands the handler to a fixed thread pool
+    Virtual;    // the dispatcher hands the handler to a new virtual thread
+
+    public static ReceiverModel parse(String s) {
+        for (ReceiverModel m : values()) {
+            if (m.name().equalsIgnoreCase(s.trim())) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("Unknown receiver model: " + s);
+    }
+}
@@ -0,0 +1,445 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.connection;
+
+import io.nats.client.Connection;
+import io.nats.client.ConnectionListener;
+import io.nats.client.ErrorListener;
+import io.nats.client.Nats;
+import io.nats.client.Options;
+import io.synadia.utils.LogHistogram;
+import io.synadia.utils.PropertyUtils;
+import io.synadia.utils.RatePacer;
+import io.synadia.utils.WorkloadShape;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.synadia.utils.ArgumentUtils.*;
+import static io.synadia.utils.Debug.format3;
+import static io.synadia.utils.Debug.log;
+import static io.synadia.utils.MiscUtils.sleep;
+
+/**
+ * Runs a publish workload once for every combination of the write side connection options
+ * and recommends the best settings for the payload size and workload.
+ * The workload is a WorkloadShape split evenly over a number of publisher threads, which are spread over
+ * a number of connections. Every cell gets fresh connections, publishes for the cell duration and is measured
+ * with a WriteProfiler per connection: throughput, publish to socket write latency percentiles, socket write timeouts,
+ * publish failures and disconnects. A cell is healthy when every publish was written, the publishers kept
+ * up with the workload and there were no timeouts, failures or disconnects. The recommendation
+ * is the healthy cell with the lowest p99, preferring smaller buffers and queues when p99 is the same,
+ * or, if no cell is healthy, the cell with the highest throughput.
+ */
+public class ConnectionTuner {
+    private static final String LABEL = "TUNER";
+    private static final long SETTLE_MILLIS = 1000;
+    private static final long FLUSH_MILLIS = 5000;
+
+    private static final String KEY_PROPS = "props";
+    private static final String[] KEYS_SERVERS = new String[]{"servers", "s"};
+    private static final String[] KEYS_PAYLOAD_SIZE = new String[]{"payload.size", "p"};
+    private static final String[] KEYS_RATE = new String[]{"rate", "t"};
+    private static final String[] KEYS_WORKLOAD_SHAPE = new String[]{"workload.shape", "ws"};
+    private static final String[] KEYS_WORKLOAD_ARRIVALS = new String[]{"workload.arrivals", "wa"};
+    private static final String[] KEYS_WORKLOAD_PUBLISHERS = new String[]{"workload.publishers", "wp"};
+    private static final String[] KEYS_WORKLOAD_CONNECTIONS = new String[]{"workload.connections", "wc"};
+    private static final String[] KEYS_WORKLOAD_ON_MILLIS = new String[]{"workload.on.millis", "won"};
+    private static final String[] KEYS_WORKLOAD_OFF_MILLIS = new String[]{"workload.off.millis", "woff"};
+    private static final String[] KEYS_WORKLOAD_MIN_RATE = new String[]{"workload.min.rate", "wmin"};
+    private static final String[] KEYS_WORKLOAD_PERIOD_MILLIS = new String[]{"workload.period.millis", "wper"};
+    private static final String[] KEYS_WORKLOAD_TRACE_FILE = new String[]{"workload.trace.file", "wtf"};
+    private static final String[] KEYS_CELL_MILLIS = new String[]{"cell.millis", "cm"};
+    private static final String[] KEYS_BUFFER_SIZES = new String[]{"buffer.sizes", "bs"};
+    private static final String[] KEYS_SOCKET_WRITE_TIMEOUTS = new String[]{"socket.write.timeouts", "swt"};
+    private static final String[] KEYS_MAX_QUEUES = new String[]{"max.messages.in.outgoing.queue", "mq"};
+    private static final String[] KEYS_CONNECTION_TIMEOUTS = new String[]{"connection.timeouts", "ct"};
+
+    static class Cell {
+        final int bufferSize;
+        final long socketWriteTimeoutMs;
+        final int maxMessagesInOutgoingQueue;
+        final long connectionTimeoutMs;
+
+        long connectMillis;
+        long published;
+        long publishFailures;
+        long behind;
+        long written;
+        long elapsedMillis;
+        long writeTimeouts;
+        long disconnects;
+        LogHistogram latency;
+        String error;
+
+        Cell(int bufferSize, long socketWriteTimeoutMs, int maxMessagesInOutgoingQueue, long connectionTimeoutMs) {
+            this.bufferSize = bufferSize;
+            this.socketWriteTimeoutMs = socketWriteTimeoutMs;
+            this.maxMessagesInOutgoingQueue = maxMessagesInOutgoingQueue;
+            this.connectionTimeoutMs = connectionTimeoutMs;
+        }
+
+        long throughput() {
+            return elapsedMillis == 0 ? 0 : written * 1000 / elapsedMillis;
+        }
+
+        long p99() {
+            return latency == null ? Long.MAX_VALUE : latency.getValueAtPercentile(99);
+        }
+
+        /**
+         * No errors, at least 99% of the publishes written, and no more than 1% of the publishes late by more than an interval
+         */
+        boolean healthy() {
+            return error == null && writeTimeouts == 0 && publishFailures == 0 && disconnects == 0
+                && written >= published * 99 / 100
+                && behind <= published / 100;
+        }
+    }
+
+    final String[] servers;
+    final int payloadSize;
+    final int rate;
+    final WorkloadShape.Type shapeType;
+    final boolean poissonArrivals;
+    final int publishers;
+    final int connections;
+    final long onMillis;
+    final long offMillis;
+    final int minRate;
+    final long periodMillis;
+    final String traceFile;
+    final long cellMillis;
+    final List<Cell> cells = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        new ConnectionTuner(args).run();
+    }
+
+    public ConnectionTuner(String[] args) throws IOException {
+        // props will come from ct.application.properties unless props=<> is on the command line
+        String propsFile = getArg(args, "ct.application.properties", KEY_PROPS);
+        Properties props = PropertyUtils.loadProperties(propsFile);
+
+        String _servers = getProperty(props, String.join(",", MainConnectionTune.ServerBootstrap), KEYS_SERVERS[0]);
+        int _payloadSize = getIntProperty(props, MainConnectionTune.PayloadSize, KEYS_PAYLOAD_SIZE[0]);
+        int _rate = getIntProperty(props, MainConnectionTune.PublishRate, KEYS_RATE[0]);
+        String _shape = getProperty(props, MainConnectionTune.PublishSchedule.name(), KEYS_WORKLOAD_SHAPE[0]);
+        String _arrivals = getProperty(props, RatePacer.Schedule.Poisson.name(), KEYS_WORKLOAD_ARRIVALS[0]);
+        int _publishers = getIntProperty(props, 1, KEYS_WORKLOAD_PUBLISHERS[0]);
+        int _connections = getIntProperty(props, 1, KEYS_WORKLOAD_CONNECTIONS[0]);
+        long _onMillis = getLongProperty(props, 1000, KEYS_WORKLOAD_ON_MILLIS[0]);
+        long _offMillis = getLongProperty(props, 4000, KEYS_WORKLOAD_OFF_MILLIS[0]);
+        int _minRate = getIntProperty(props, 10, KEYS_WORKLOAD_MIN_RATE[0]);
+        long _periodMillis = getLongProperty(props, 60_000, KEYS_WORKLOAD_PERIOD_MILLIS[0]);
+        String _traceFile = getProperty(props, "", KEYS_WORKLOAD_TRACE_FILE[0]);
+        long _cellMillis = getLongProperty(props, 10_000, KEYS_CELL_MILLIS[0]);
+        String _bufferSizes = getProperty(props, "8ki,16ki,64ki", KEYS_BUFFER_SIZES[0]);
+        String _writeTimeouts = getProperty(props, "500,5000,60000", KEYS_SOCKET_WRITE_TIMEOUTS[0]);
+        String _maxQueues = getProperty(props, "1000,5000,20000", KEYS_MAX_QUEUES[0]);
+        String _connectionTimeouts = getProperty(props, "" + MainConnectionTune.ConnectionTimeoutMs, KEYS_CONNECTION_TIMEOUTS[0]);
+
+        // command line takes precedent if present
+        _servers = getArg(args, _servers, KEYS_SERVERS);
+        _payloadSize = getIntArg(args, _payloadSize, KEYS_PAYLOAD_SIZE);
+        _rate = getIntArg(args, _rate, KEYS_RATE);
+        _shape = getArg(args, _shape, KEYS_WORKLOAD_SHAPE);
+        _arrivals = getArg(args, _arrivals, KEYS_WORKLOAD_ARRIVALS);
+        _publishers = getIntArg(args, _publishers, KEYS_WORKLOAD_PUBLISHERS);
+        _connections = getIntArg(args, _connections, KEYS_WORKLOAD_CONNECTIONS);
+        _onMillis = getLongArg(args, _onMillis, KEYS_WORKLOAD_ON_MILLIS);
+        _offMillis = getLongArg(args, _offMillis, KEYS_WORKLOAD_OFF_MILLIS);
+        _minRate = getIntArg(args, _minRate, KEYS_WORKLOAD_MIN_RATE);
+        _periodMillis = getLongArg(args, _periodMillis, KEYS_WORKLOAD_PERIOD_MILLIS);
+        _traceFile = getArg(args, _traceFile, KEYS_WORKLOAD_TRACE_FILE);
+        _cellMillis = getLongArg(args, _cellMillis, KEYS_CELL_MILLIS);
+        _bufferSizes = getArg(args, _bufferSizes, KEYS_BUFFER_SIZES);
+        _writeTimeouts = getArg(args, _writeTimeouts, KEYS_SOCKET_WRITE_TIMEOUTS);
+        _maxQueues = getArg(args, _maxQueues, KEYS_MAX_QUEUES);
+        _connectionTimeouts = getArg(args, _connectionTimeouts, KEYS_CONNECTION_TIMEOUTS);
+
+        //noinspection DataFlowIssue
+        servers = _servers.split(",");
+        payloadSize = _payloadSize;
+        rate = _rate;
+        //noinspection DataFlowIssue
+        shapeType = WorkloadShape.Type.parse(_shape);
+        //noinspection DataFlowIssue
+        poissonArrivals = RatePacer.Schedule.parse(_arrivals) == RatePacer.Schedule.Poisson;
+        publishers = Math.max(1, _publishers);
+        connections = Math.max(1, Math.min(_connections, publishers));
+        onMillis = _onMillis;
+        offMillis = _offMillis;
+        minRate = _minRate;
+        periodMillis = _periodMillis;
+        //noinspection DataFlowIssue
+        traceFile = _traceFile.trim();
+        cellMillis = _cellMillis;
+        newShape(); // fail now on bad shape settings
+        List<String> bufferSizes = values(_bufferSizes);
+        List<String> writeTimeouts = values(_writeTimeouts);
+        List<String> maxQueues = values(_maxQueues);
+        List<String> connectionTimeouts = values(_connectionTimeouts);
+
+        for (String b : bufferSizes) {
+            for (String w : writeTimeouts) {
+                for (String q : maxQueues) {
+                    for (String c : connectionTimeouts) {
+                        cells.add(new Cell(parseInt(b), parseLong(w), parseInt(q), parseLong(c)));
+                    }
+                }
+            }
+        }
+
+        log(LABEL, "----- Connection Tuner -----");
+        log(LABEL, "Servers", servers);
+        log(LABEL, "Payload Size", payloadSize);
+        log(LABEL, "Rate", rate);
+        log(LABEL, "Workload Shape", shapeType);
+        log(LABEL, "Workload Arrivals", poissonArrivals ? RatePacer.Schedule.Poisson : RatePacer.Schedule.Fixed);
+        log(LABEL, "Workload Publishers", publishers);
+        log(LABEL, "Workload Connections", connections);
+        if (shapeType == WorkloadShape.Type.OnOff) {
+            log(LABEL, "Workload On / Off Millis: %s / %s", onMillis, offMillis);
+        }
+        else if (shapeType == WorkloadShape.Type.Diurnal) {
+            log(LABEL, "Workload Min Rate / Period Millis: %s / %s", minRate, periodMillis);
+        }
+        else if (shapeType == WorkloadShape.Type.Trace) {
+            log(LABEL, "Workload Trace File", traceFile);
+        }
+        log(LABEL, "Cell Millis", cellMillis);
+        log(LABEL, "Buffer Sizes", bufferSizes);
+        log(LABEL, "Socket Write Timeouts", writeTimeouts);
+        log(LABEL, "Max Messages In Outgoing Queue", maxQueues);
+        log(LABEL, "Connection Timeouts", connectionTimeouts);
+        log(LABEL, "Cells", cells.size());
+    }
+
+    /**
+     * One publisher's share of the workload
+     */
+    private WorkloadShape newShape() throws IOException {
+        double share = 1.0 / publishers;
+        switch (shapeType) {
+            case Constant: return new WorkloadShape.Constant(rate * share, false);
+            case OnOff: return new WorkloadShape.OnOff(rate * share, onMillis, offMillis, poissonArrivals);
+            case Diurnal: return new WorkloadShape.Diurnal(minRate * share, rate * share, periodMillis, poissonArrivals);
+            case Trace: return WorkloadShape.Trace.load(traceFile, share, poissonArrivals);
+            case Poisson: default: return new WorkloadShape.Constant(rate * share, true);
+        }
+    }
+
+    public void run() {
+        for (int ix = 0; ix < cells.size(); ix++) {
+            Cell cell = cells.get(ix);
+            log(LABEL, "----- Cell %s of %s -----", ix + 1, cells.size());
+            try {
+                runCell(cell);
+            }
+            catch (Exception e) {
+                cell.error = e.toString();
+                log(LABEL, "Cell Failed", e);
+            }
+            sleep(SETTLE_MILLIS);
+        }
+        report();
+    }
+
+    private void runCell(Cell cell) throws Exception {
+        WriteProfiler[] profilers = new WriteProfiler[connections];
+        Connection[] ncs = new Connection[connections];
+        AtomicLong writeTimeouts = new AtomicLong();
+        AtomicLong disconnects = new AtomicLong();
+        LongAdder published = new LongAdder();
+        LongAdder publishFailures = new LongAdder();
+        LongAdder behind = new LongAdder();
+        try {
+            for (int cx = 0; cx < connections; cx++) {
+                WriteProfiler profiler = new WriteProfiler(payloadSize, cell.maxMessagesInOutgoingQueue, 0);
+                profilers[cx] = profiler;
+                Options options = Options.builder()
+                    .servers(servers)
+                    .connectionTimeout(cell.connectionTimeoutMs)
+                    .socketWriteTimeout(cell.socketWriteTimeoutMs)
+                    .maxMessagesInOutgoingQueue(cell.maxMessagesInOutgoingQueue)
+                    .bufferSize(cell.bufferSize)
+                    .statisticsCollector(profiler)
+                    .connectionListener((conn, type) -> {
+                        if (type == ConnectionListener.Events.DISCONNECTED) {
+                            disconnects.incrementAndGet();
+                            profiler.realign();
+                        }
+                    })
+                    .errorListener(new ErrorListener() {
+                        @Override
+                        public void socketWriteTimeout(Connection conn) {
+                            writeTimeouts.incrementAndGet();
+                        }
+                    })
+                    .build();
+                long connectStart = System.nanoTime();
+                ncs[cx] = Nats.connect(options);
+                cell.connectMillis = Math.max(cell.connectMillis, (System.nanoTime() - connectStart) / 1_000_000);
+                profiler.setConnection(ncs[cx]);
+            }
+
+            // publishers that share a connection take turns in the profiler's publish, so it sees them in queue order
+            byte[] data = new byte[payloadSize];
+            long start = System.nanoTime();
+            long end = start + cellMillis * 1_000_000;
+            List<Thread> threads = new ArrayList<>();
+            for (int px = 0; px < publishers; px++) {
+                WriteProfiler profiler = profilers[px % connections];
+                Connection nc = ncs[px % connections];
+                RatePacer pacer = new RatePacer(newShape());
+                long stagger = px * 1_000_000_000L / Math.max(1, rate); // so fixed arrivals don't line up
+                Thread t = new Thread(() -> {
+                    RatePacer.waitUntil(start + stagger);
+                    pacer.start();
+                    while (System.nanoTime() - end < 0) {
+                        pacer.awaitNext();
+                        try {
+                            profiler.publish(nc, "subject", data);
+                            published.increment();
+                        }
+                        catch (Exception e) {
+                            publishFailures.increment();
+                        }
+                    }
+                    behind.add(pacer.getBehind());
+                }, "P-" + px);
+                t.start();
+                threads.add(t);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (Connection nc : ncs) {
+                try {
+                    nc.flush(Duration.ofMillis(FLUSH_MILLIS));
+                }
+                catch (Exception e) {
+                    cell.error = "flush " + e;
+                }
+            }
+            cell.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        }
+        finally {
+            for (Connection nc : ncs) {
+                if (nc != null) {
+                    nc.close();
+                }
+            }
+        }
+        cell.latency = new LogHistogram();
+        for (WriteProfiler profiler : profilers) {
+            cell.latency.add(profiler.getTotalWriteLatency());
+        }
+        cell.written = cell.latency.getCount();
+        cell.published = published.sum();
+        cell.publishFailures = publishFailures.sum();
+        cell.behind = behind.sum();
+        cell.writeTimeouts = writeTimeouts.get();
+        cell.disconnects = disconnects.get();
+        log(LABEL, "Buffer %s  Write Timeout %s  Max Queue %s  Connection Timeout %s -> %s msgs/sec, p99 %s ms, timeouts %s",
+            cell.bufferSize, cell.socketWriteTimeoutMs, cell.maxMessagesInOutgoingQueue, cell.connectionTimeoutMs,
+            cell.throughput(), millis(cell.p99()), cell.writeTimeouts);
+    }
+
+    private void report() {
+        System.out.println("\nCONNECTION TUNER  payload " + payloadSize + " bytes, " + shapeType + " workload, rate " + format(rate)
+            + " msgs/sec, " + publishers + " publishers on " + connections + " connections");
+        System.out.println("    Buffer  Write TO  Max Queue  Conn TO  Connect ms   Msgs/sec   p50 ms   p99 ms p99.9 ms   max ms  Write TOs  Pub Fails     Behind  Disconnects  Healthy");
+        Cell best = null;
+        for (Cell c : cells) {
+            if (c.latency == null) {
+                System.out.println("  " + formatRight(c.bufferSize, 8) + " " + formatRight(c.socketWriteTimeoutMs, 9) + " "
+                    + formatRight(c.maxMessagesInOutgoingQueue, 10) + " " + formatRight(c.connectionTimeoutMs, 8) + "  " + c.error);
+                continue;
+            }
+            boolean healthy = c.healthy();
+            System.out.println("  "
+                + formatRight(c.bufferSize, 8) + " "
+                + formatRight(c.socketWriteTimeoutMs, 9) + " "
+                + formatRight(c.maxMessagesInOutgoingQueue, 10) + " "
+                + formatRight(c.connectionTimeoutMs, 8) + " "
+                + formatRight(c.connectMillis, 11) + " "
+                + formatRight(c.throughput(), 10) + " "
+                + String.format("%8s", millis(c.latency.getValueAtPercentile(50))) + " "
+                + String.format("%8s", millis(c.p99())) + " "
+                + String.format("%8s", millis(c.latency.getValueAtPercentile(99.9))) + " "
+                + String.format("%8s", millis(c.latency.getMax())) + " "
+                + formatRight(c.writeTimeouts, 10) + " "
+                + formatRight(c.publishFailures, 10) + " "
+                + formatRight(c.behind, 10) + " "
+                + formatRight(c.disconnects, 12) + "  "
+                + (healthy ? "yes" : "no"));
+            if (better(c, best)) {
+                best = c;
+            }
+        }
+
+        if (best == null) {
+            System.out.println("\n  No cell completed, nothing to recommend.");
+            return;
+        }
+        if (best.healthy()) {
+            System.out.println("\n  Recommended, the lowest p99 of the cells that kept up without timeouts, failures or disconnects:");
+        }
+        else {
+            System.out.println("\n  No cell kept up without timeouts, failures or disconnects. The highest throughput was:");
+        }
+        System.out.println("    Options.builder()");
+        System.out.println("        .bufferSize(" + best.bufferSize + ")");
+        System.out.println("        .socketWriteTimeout(" + best.socketWriteTimeoutMs + ")");
+        System.out.println("        .maxMessagesInOutgoingQueue(" + best.maxMessagesInOutgoingQueue + ")");
+        System.out.println("        .connectionTimeout(" + best.connectionTimeoutMs + ")");
+    }
+
+    /**
+     * True if the cell is a better recommendation than the best so far
+     */
+    private boolean better(Cell c, Cell best) {
+        if (best == null) {
+            return true;
+        }
+        boolean healthy = c.healthy();
+        if (healthy != best.healthy()) {
+            return healthy;
+        }
+        if (!healthy) {
+            if (c.throughput() != best.throughput()) {
+                return c.throughput() > best.throughput();
+            }
+        }
+        if (c.p99() != best.p99()) {
+            return c.p99() < best.p99();
+        }
+        if (c.bufferSize != best.bufferSize) {
+            return c.bufferSize < best.bufferSize;
+        }
+        return c.maxMessagesInOutgoingQueue < best.maxMessagesInOutgoingQueue;
+    }
+
+    private static List<String> values(String val) {
+        List<String> values = new ArrayList<>();
+        //noinspection DataFlowIssue
+        for (String v : val.split(",")) {
+            if (!v.trim().isEmpty()) {
+                values.add(v.trim());
+            }
+        }
+        return values;
+    }
+
+    private static String millis(long nanos) {
+        return format3(nanos / 1_000_000.0);
+    }
+}
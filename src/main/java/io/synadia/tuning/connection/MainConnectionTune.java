@@ -13,117 +13,257 @@ import io.nats.client.Connection;
 import io.nats.client.ConnectionListener;
 import io.nats.client.Nats;
 import io.nats.client.Options;
-import io.nats.client.impl.NoOpStatistics;
+import io.synadia.utils.LogHistogram;
+import io.synadia.utils.RatePacer;
 
 import java.io.IOException;
-import java.util.concurrent.ThreadLocalRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static io.nats.client.ForceReconnectOptions.FORCE_CLOSE_INSTANCE;
+import static io.synadia.utils.ArgumentUtils.formatRight;
+import static io.synadia.utils.Debug.format3;
 
 public class MainConnectionTune {
-    static final long NANOS_PER_MILLI = 1_000_000;
-
     static final String[] ServerBootstrap = new String[]{"nats://localhost:4222"};
     static final int PayloadSize = 1000;
-    static final int JitterMs = 10;
+    static final int PublishRate = 200; // messages per second
+    static final RatePacer.Schedule PublishSchedule = RatePacer.Schedule.Poisson; // random gaps, like the old 0-10ms jitter sleep
     static final long ConnectionTimeoutMs = 2000; // Options.DEFAULT_CONNECTION_TIMEOUT = 2 seconds
     static final long SocketWriteTimeoutMs = 500; // Options.DEFAULT_SOCKET_WRITE_TIMEOUT = 1 minute
     static final int MaxMessagesInOutgoingQueue = 5000; // Options.DEFAULT_MAX_MESSAGES_IN_OUTGOING_QUEUE = 5000 [messages]
     static final int BufferSizeInBytes = 16 * 1024; // Options.DEFAULT_BUFFER_SIZE = 64k (64 * 1024)
     static final long StatisticsThresholdMillis = 1;
+    static final long ReportIntervalMillis = 5000;
+
+    // compare mode, run with the argument "compare"
+    static final long CompareMillis = 10_000; // how long each strategy publishes
+    static final int BatchSize = 100; // messages between flushes for Batch
+    static final long FlushIntervalMillis = 5; // time between flushes for TimedFlush
+    static final Duration FlushTimeout = Duration.ofSeconds(5);
 
-    @SuppressWarnings({"InfiniteLoopStatement", "BusyWait"})
+    /**
+     * How compare mode publishes. Every strategy publishes as fast as it can, so the writer thread coalesces
+     * whatever it finds buffered. A flush writes what is buffered right away and waits for the server's pong.
+     */
+    enum PublishStrategy {
+        PerMessage, // only publish, the writer thread decides when to write
+        Batch,      // flush after every BatchSize messages
+        TimedFlush  // flush every FlushIntervalMillis
+    }
+
+    @SuppressWarnings("InfiniteLoopStatement")
     public static void main(String[] args) throws InterruptedException, IOException {
-        CustomStatisticsCollector statisticsCollector = new CustomStatisticsCollector();
+        if (args.length > 0 && "compare".equalsIgnoreCase(args[0])) {
+            compareStrategies();
+            return;
+        }
+
+        WriteProfiler profiler = new WriteProfiler(PayloadSize, MaxMessagesInOutgoingQueue, StatisticsThresholdMillis);
 
         Options options = Options.builder()
             .servers(ServerBootstrap)
-            .connectionListener(new CustomConnectionListener())
+            .connectionListener(new CustomConnectionListener(profiler))
             .connectionTimeout(ConnectionTimeoutMs)
             .socketWriteTimeout(SocketWriteTimeoutMs)
             .maxMessagesInOutgoingQueue(MaxMessagesInOutgoingQueue)
             .bufferSize(BufferSizeInBytes)
-            .statisticsCollector(statisticsCollector)
+            .statisticsCollector(profiler)
             .build();
 
         byte[] data = new byte[PayloadSize];
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
         try (Connection connection = Nats.connect(options)) {
-            statisticsCollector.setConnection(connection);
+            profiler.setConnection(connection);
+            profiler.setThresholdAction(() -> {
+                System.out.println("Threshold (" + StatisticsThresholdMillis + "ms) crossed"
+                    + " | pending queue: " + connection.outgoingPendingMessageCount() + " msgs, " + connection.outgoingPendingBytes() + " bytes");
+                connection.getOptions().getConnectExecutor().execute(() -> {
+                    try {
+                        connection.forceReconnect(FORCE_CLOSE_INSTANCE);
+                    }
+                    catch (IOException | InterruptedException e) {
+                        // if IOException happens you should make an entirely new connection
+                        // but it should actually never happen.
+                        // if InterruptedException, that means your app killed this thread
+                        // which also probably won't happen
+                        System.exit(0);
+                    }
+                });
+            });
+            reporter.scheduleAtFixedRate(() -> {
+                WriteProfiler.Interval interval = profiler.roll();
+                System.out.println("Report: " + interval.summary());
+                System.out.println("        " + interval.byDepth());
+            }, ReportIntervalMillis, ReportIntervalMillis, TimeUnit.MILLISECONDS);
+
+            RatePacer pacer = new RatePacer(PublishRate, PublishSchedule);
+            pacer.start();
             while (true) {
-                connection.publish("subject", data);
-                Thread.sleep(ThreadLocalRandom.current().nextLong(JitterMs));
+                pacer.awaitNext();
+                profiler.publish(connection, "subject", data);
             }
         }
+        finally {
+            reporter.shutdownNow();
+        }
     }
 
-    static class CustomConnectionListener implements ConnectionListener {
-        @Override
-        public void connectionEvent(Connection conn, Events type) {
-            System.out.println(type.name()
-                    + " | pending queue: " + conn.outgoingPendingMessageCount() + " msgs, " + conn.outgoingPendingBytes() + " bytes"
-            );
+    static class StrategyResult {
+        final PublishStrategy strategy;
+        final LogHistogram flushLatency = new LogHistogram();
+        long published;
+        long publishFailures;
+        long flushTimeouts;
+        long loopNanos;
+        WriteProfiler.Interval interval;
+
+        StrategyResult(PublishStrategy strategy) {
+            this.strategy = strategy;
         }
-    }
 
-    static class CustomStatisticsCollector extends NoOpStatistics {
-        final long thresholdNanos;
-        Connection connection;
+        long messagesPerSecond() {
+            return loopNanos == 0 ? 0 : published * 1_000_000_000L / loopNanos;
+        }
 
-        long incrementedAt;
-        long inFlight = 0;
-        long totalMessages = 0;
-        long totalElapsedNanos = 0;
-        long totalWrites = 0;
-        float writeAverage;
+        double megabytesPerSecond() {
+            return loopNanos == 0 ? 0 : published * (double)PayloadSize * 1000 / loopNanos;
+        }
+    }
 
-        public CustomStatisticsCollector() {
-            thresholdNanos = StatisticsThresholdMillis * NANOS_PER_MILLI;
+    static void compareStrategies() throws InterruptedException, IOException {
+        List<StrategyResult> results = new ArrayList<>();
+        for (PublishStrategy strategy : PublishStrategy.values()) {
+            System.out.println("Running " + strategy + " for " + CompareMillis + "ms");
+            results.add(runStrategy(strategy));
         }
 
-        public void setConnection(Connection connection) {
-            this.connection = connection;
+        System.out.println("\nPUBLISH STRATEGIES  payload " + PayloadSize + " bytes, buffer " + BufferSizeInBytes
+            + " bytes, batch " + BatchSize + ", flush interval " + FlushIntervalMillis + "ms");
+        System.out.println("  Strategy       Msgs/sec  MB/sec     Writes | Msgs/Write p50   p99   max | Bytes/Write p50      p99      max"
+            + " |  Flushes  p50 ms  p99 ms | Pub Fails | Pub->Write p99 ms");
+        for (StrategyResult r : results) {
+            WriteProfiler.Interval i = r.interval;
+            System.out.println("  " + String.format("%-12s", r.strategy)
+                + formatRight(r.messagesPerSecond(), 11) + " "
+                + String.format("%7s", format3(r.megabytesPerSecond())) + " "
+                + formatRight(i.writes, 10) + " | "
+                + formatRight(i.messagesPerWrite.getValueAtPercentile(50), 14) + " "
+                + formatRight(i.messagesPerWrite.getValueAtPercentile(99), 5) + " "
+                + formatRight(i.messagesPerWrite.getMax(), 5) + " | "
+                + formatRight(i.writeBytes.getValueAtPercentile(50), 15) + " "
+                + formatRight(i.writeBytes.getValueAtPercentile(99), 8) + " "
+                + formatRight(i.writeBytes.getMax(), 8) + " | "
+                + formatRight(r.flushLatency.getCount(), 8) + " "
+                + String.format("%7s", millis(r.flushLatency.getValueAtPercentile(50))) + " "
+                + String.format("%7s", millis(r.flushLatency.getValueAtPercentile(99))) + " | "
+                + formatRight(r.publishFailures, 9) + " | "
+                + String.format("%17s", millis(i.writeLatency.getValueAtPercentile(99))));
         }
+        for (StrategyResult r : results) {
+            if (r.flushTimeouts > 0) {
+                System.out.println("  " + r.strategy + " flush timeouts: " + r.flushTimeouts);
+            }
+        }
+    }
 
-        @Override
-        public void registerWrite(long bytes) {
-            long elapsedNanos = System.nanoTime() - incrementedAt;
-            if (elapsedNanos > thresholdNanos) {
-                report("Threshold (" + StatisticsThresholdMillis + "ms) crossed ", elapsedNanos);
-                connection.getOptions().getConnectExecutor().execute(() -> {
-                    try {
-                        connection.forceReconnect(FORCE_CLOSE_INSTANCE);
-                    }
-                    catch (IOException | InterruptedException e) {
-                        // if IOException happens you should make an entirely new connection
-                        // but it should actually never happen.
-                        // if InterruptedException, that means your app killed this thread
-                        // which also probably won't happen
-                        System.exit(0);
-                    }
-                });
+    static StrategyResult runStrategy(PublishStrategy strategy) throws InterruptedException, IOException {
+        StrategyResult r = new StrategyResult(strategy);
+        WriteProfiler profiler = new WriteProfiler(PayloadSize, MaxMessagesInOutgoingQueue, 0);
+
+        Options options = Options.builder()
+            .servers(ServerBootstrap)
+            .connectionListener(new CustomConnectionListener(profiler))
+            .connectionTimeout(ConnectionTimeoutMs)
+            .socketWriteTimeout(SocketWriteTimeoutMs)
+            .maxMessagesInOutgoingQueue(MaxMessagesInOutgoingQueue)
+            .bufferSize(BufferSizeInBytes)
+            .statisticsCollector(profiler)
+            .build();
+
+        byte[] data = new byte[PayloadSize];
+        Connection connection = Nats.connect(options);
+        try {
+            profiler.setConnection(connection);
+            profiler.roll(); // the interval starts with the publishing, not the connect
+
+            long start = System.nanoTime();
+            long end = start + CompareMillis * 1_000_000;
+            long nextFlush = start + FlushIntervalMillis * 1_000_000;
+            int inBatch = 0;
+            long now = start;
+            while (now - end < 0) {
+                try {
+                    profiler.publish(connection, "subject", data);
+                    r.published++;
+                    inBatch++;
+                }
+                catch (IllegalStateException e) {
+                    // the outgoing queue is full, give the writer a chance
+                    r.publishFailures++;
+                    Thread.yield();
+                }
+                now = System.nanoTime();
+                if ((strategy == PublishStrategy.Batch && inBatch >= BatchSize)
+                    || (strategy == PublishStrategy.TimedFlush && now - nextFlush >= 0))
+                {
+                    flush(connection, r);
+                    inBatch = 0;
+                    now = System.nanoTime();
+                    nextFlush = now + FlushIntervalMillis * 1_000_000;
+                }
+            }
+            r.loopNanos = System.nanoTime() - start;
+
+            // let everything published reach the socket before taking the histograms
+            try {
+                connection.flush(FlushTimeout);
             }
-            if (totalMessages % 100 == 0) {
-                report("Report", elapsedNanos);
+            catch (TimeoutException e) {
+                System.out.println(strategy + " final flush timed out, the last writes are not in the histograms");
             }
-            inFlight -= bytes;
-            totalElapsedNanos += elapsedNanos;
-            totalWrites++;
-            writeAverage = (float)totalElapsedNanos / totalWrites;
+            r.interval = profiler.roll();
         }
+        finally {
+            connection.close();
+        }
+        return r;
+    }
 
-        @Override
-        public void incrementOutBytes(long bytes) {
-            totalMessages++; // I know this is called once per message
-            incrementedAt = System.nanoTime();
-            inFlight += bytes;
+    private static void flush(Connection connection, StrategyResult r) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            connection.flush(FlushTimeout);
+            r.flushLatency.record(System.nanoTime() - start);
+        }
+        catch (TimeoutException e) {
+            r.flushTimeouts++;
         }
+    }
+
+    private static String millis(long nanos) {
+        return format3(nanos / 1_000_000.0);
+    }
 
-        private void report(String label, long elapsedNanos) {
-            float elapsedMillis = (float)elapsedNanos / 1_000_000F;
-            float writeAverageMillis = writeAverage / 1_000_000F;
-            System.out.println(label + ": " + inFlight + " bytes"
-                + " | " + String.format("%.3f", elapsedMillis) + "ms vs average: " + String.format("%.3f", writeAverageMillis) + "ms"
-                + " | pending queue: " + connection.outgoingPendingMessageCount() + " msgs, " + connection.outgoingPendingBytes() + " bytes"
+    static class CustomConnectionListener implements ConnectionListener {
+        final WriteProfiler profiler;
+
+        CustomConnectionListener(WriteProfiler profiler) {
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void connectionEvent(Connection conn, Events type) {
+            if (type == Events.DISCONNECTED) {
+                profiler.realign();
+            }
+            System.out.println(type.name()
+                    + " | pending queue: " + conn.outgoingPendingMessageCount() + " msgs, " + conn.outgoingPendingBytes() + " bytes"
             );
         }
     }
@@ -0,0 +1,303 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.connection;
+
+import io.nats.client.Connection;
+import io.nats.client.impl.NoOpStatistics;
+import io.synadia.utils.LogHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.synadia.utils.Debug.format3;
+
+/**
+ * A statistics collector that measures how long every published message waits before it is written to the socket.
+ * <p>
+ * Messages are published through {@link #publish(Connection, String, byte[])}, which puts the
+ * publish time and the outgoing queue depth into a ring at the message's sequence number. The connection's writer
+ * thread calls incrementOut as it copies each message into the send buffer and registerWrite when the buffer goes
+ * to the socket, in the same order the messages were published, so the n-th payload sized incrementOut is the
+ * n-th publish. Every registerWrite completes the messages buffered since the last one.
+ * <p>
+ * For every message the wait from publish to socket write is recorded, and the part of it spent in the outgoing queue.
+ * The wait is also recorded by the queue depth the message found when it was published, so it can be seen how
+ * much the queue contributes. Write sizes and messages per write are recorded per write.
+ * Publishers take turns, so the ring is in queue order.
+ * <p>
+ * At a disconnect, the messages in the send buffer are lost, but the ones still in the outgoing queue are kept
+ * and written after the reconnect, so {@link #realign()} points the writer side at the published count less the
+ * queue depth. Those messages are measured, their wait includes the outage.
+ */
+public class WriteProfiler extends NoOpStatistics {
+    static final long[] DEPTH_BOUNDS = new long[]{1, 10, 100, 1000, Long.MAX_VALUE}; // upper bounds, exclusive
+    static final String[] DEPTH_LABELS = new String[]{"0", "1-9", "10-99", "100-999", "1000+"};
+
+    public static class Interval {
+        public final long millis;
+        public final long messages;
+        public final long writes;
+        public final long bytes;
+        public final LogHistogram writeLatency;  // publish to socket write, nanos
+        public final LogHistogram queueLatency;  // publish to send buffer, nanos
+        public final LogHistogram writeBytes;
+        public final LogHistogram messagesPerWrite;
+        public final LogHistogram[] latencyByDepth;
+        public final long maxPendingMessages;
+        public final long pendingMessages;
+        public final long pendingBytes;
+
+        Interval(long millis, WriteProfiler p, long pendingMessages, long pendingBytes) {
+            this.millis = millis;
+            messages = p.writeLatency.getCount();
+            writes = p.writeBytes.getCount();
+            bytes = p.writtenBytes;
+            writeLatency = copy(p.writeLatency);
+            queueLatency = copy(p.queueLatency);
+            writeBytes = copy(p.writeBytes);
+            messagesPerWrite = copy(p.messagesPerWrite);
+            latencyByDepth = new LogHistogram[p.latencyByDepth.length];
+            for (int ix = 0; ix < latencyByDepth.length; ix++) {
+                latencyByDepth[ix] = copy(p.latencyByDepth[ix]);
+            }
+            maxPendingMessages = p.maxPendingMessages;
+            this.pendingMessages = pendingMessages;
+            this.pendingBytes = pendingBytes;
+        }
+
+        public long messagesPerSecond() {
+            return millis == 0 ? 0 : messages * 1000 / millis;
+        }
+
+        public String summary() {
+            return "msgs " + messages + " (" + messagesPerSecond() + "/sec)"
+                + " | writes " + writes
+                + " | msgs/write p50 " + messagesPerWrite.getValueAtPercentile(50) + " max " + messagesPerWrite.getMax()
+                + " | write bytes p50 " + writeBytes.getValueAtPercentile(50) + " max " + writeBytes.getMax()
+                + " | publish->write ms p50 " + millis(writeLatency, 50) + " p99 " + millis(writeLatency, 99)
+                + " p99.9 " + millis(writeLatency, 99.9) + " max " + format3(writeLatency.getMax() / 1_000_000.0)
+                + " | in queue ms p99 " + millis(queueLatency, 99)
+                + " | pending " + pendingMessages + " msgs, " + pendingBytes + " bytes, max " + maxPendingMessages + " msgs";
+        }
+
+        public String byDepth() {
+            StringBuilder sb = new StringBuilder("publish->write ms by queue depth at publish");
+            for (int ix = 0; ix < latencyByDepth.length; ix++) {
+                LogHistogram h = latencyByDepth[ix];
+                if (h.getCount() > 0) {
+                    sb.append(" | ").append(DEPTH_LABELS[ix]).append(": ").append(h.getCount())
+                        .append(" p50 ").append(millis(h, 50))
+                        .append(" p99 ").append(millis(h, 99));
+                }
+            }
+            return sb.toString();
+        }
+
+        private static String millis(LogHistogram h, double percentile) {
+            return format3(h.getValueAtPercentile(percentile) / 1_000_000.0);
+        }
+
+        private static LogHistogram copy(LogHistogram h) {
+            LogHistogram c = new LogHistogram();
+            c.add(h);
+            return c;
+        }
+    }
+
+    private final int payloadSize;
+    private final long thresholdNanos;
+    private final long[] publishedAt;
+    private final long[] depthAt;
+    private final int mask;
+    private volatile Connection connection;
+    private Runnable thresholdAction;
+
+    // guarded by publishLock
+    private final Object publishLock = new Object();
+    private final AtomicLong publishedSeq = new AtomicLong();
+    private volatile long maxPendingMessages;
+
+    // writer thread
+    private long bufferedSeq;      // payloads copied into the send buffer
+    private long writtenSeq;       // payloads written to the socket
+    private long bufferedMessages; // payloads in the send buffer right now
+    private volatile long realignTo = -1;
+
+    // guarded by this, recorded by the writer thread, rolled by the reporter
+    private final LogHistogram writeLatency = new LogHistogram();
+    private final LogHistogram queueLatency = new LogHistogram();
+    private final LogHistogram writeBytes = new LogHistogram();
+    private final LogHistogram messagesPerWrite = new LogHistogram();
+    private final LogHistogram[] latencyByDepth;
+    private final LogHistogram totalWriteLatency = new LogHistogram();
+    private final AtomicLong thresholdCrossings = new AtomicLong();
+    private long writtenBytes;
+    private long intervalStart = System.nanoTime();
+
+    /**
+     * @param payloadSize writes of at least this many bytes are counted as published messages, smaller ones are protocol
+     * @param maxOutstanding the most messages that can be published and not yet written, the ring is sized from it
+     * @param thresholdMillis a message waiting longer than this calls the threshold action, 0 for never
+     */
+    public WriteProfiler(int payloadSize, int maxOutstanding, long thresholdMillis) {
+        this.payloadSize = payloadSize;
+        thresholdNanos = thresholdMillis * 1_000_000;
+        int size = 2;
+        while (size < maxOutstanding * 2) {
+            size <<= 1;
+        }
+        publishedAt = new long[size];
+        depthAt = new long[size];
+        mask = size - 1;
+        latencyByDepth = new LogHistogram[DEPTH_BOUNDS.length];
+        for (int ix = 0; ix < latencyByDepth.length; ix++) {
+            latencyByDepth[ix] = new LogHistogram();
+        }
+    }
+
+    public void setConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Run, on the writer thread, when a message waited longer than the threshold
+     */
+    public void setThresholdAction(Runnable thresholdAction) {
+        this.thresholdAction = thresholdAction;
+    }
+
+    public long getThresholdCrossings() {
+        return thresholdCrossings.get();
+    }
+
+    public synchronized LogHistogram getTotalWriteLatency() {
+        LogHistogram c = new LogHistogram();
+        c.add(totalWriteLatency);
+        return c;
+    }
+
+    /**
+     * Publish, recording the message in the ring. Throws whatever the publish throws, the message is then not counted.
+     */
+    public void publish(Connection nc, String subject, byte[] data) {
+        synchronized (publishLock) {
+            beforePublish();
+            nc.publish(subject, data);
+            published();
+        }
+    }
+
+    private void beforePublish() {
+        int ix = (int)(publishedSeq.get() & mask);
+        Connection nc = connection;
+        long depth = nc == null ? 0 : nc.outgoingPendingMessageCount();
+        if (depth > maxPendingMessages) {
+            maxPendingMessages = depth;
+        }
+        depthAt[ix] = depth;
+        publishedAt[ix] = System.nanoTime();
+    }
+
+    private void published() {
+        publishedSeq.lazySet(publishedSeq.get() + 1);
+    }
+
+    /**
+     * Call when the connection disconnects. The next message the writer copies is the oldest one still in the
+     * outgoing queue, what was already taken from the queue and not written is dropped by the client.
+     */
+    public void realign() {
+        synchronized (publishLock) {
+            Connection nc = connection;
+            long queued = nc == null ? 0 : Math.max(0, nc.outgoingPendingMessageCount());
+            realignTo = Math.max(0, publishedSeq.get() - queued);
+        }
+    }
+
+    @Override
+    public void incrementOut(long bytes) {
+        if (bytes < payloadSize) {
+            return;
+        }
+        long now = System.nanoTime();
+        checkRealign();
+        int ix = (int)(bufferedSeq & mask);
+        synchronized (this) {
+            queueLatency.record(now - publishedAt[ix]);
+        }
+        bufferedSeq++;
+        bufferedMessages++;
+    }
+
+    @Override
+    public void registerWrite(long bytes) {
+        long now = System.nanoTime();
+        checkRealign();
+        boolean crossed = false;
+        synchronized (this) {
+            writeBytes.record(bytes);
+            writtenBytes += bytes;
+            messagesPerWrite.record(bufferedMessages);
+            for (; writtenSeq < bufferedSeq; writtenSeq++) {
+                int ix = (int)(writtenSeq & mask);
+                long latency = now - publishedAt[ix];
+                writeLatency.record(latency);
+                totalWriteLatency.record(latency);
+                latencyByDepth[depthBucket(depthAt[ix])].record(latency);
+                if (thresholdNanos > 0 && latency > thresholdNanos) {
+                    crossed = true;
+                }
+            }
+        }
+        bufferedMessages = 0;
+        if (crossed) {
+            thresholdCrossings.incrementAndGet();
+            Runnable action = thresholdAction;
+            if (action != null) {
+                action.run();
+            }
+        }
+    }
+
+    /**
+     * Take the summary since the last call and start the next interval
+     */
+    public Interval roll() {
+        Connection nc = connection;
+        long pendingMessages = nc == null ? 0 : nc.outgoingPendingMessageCount();
+        long pendingBytes = nc == null ? 0 : nc.outgoingPendingBytes();
+        synchronized (this) {
+            long now = System.nanoTime();
+            Interval interval = new Interval((now - intervalStart) / 1_000_000, this, pendingMessages, pendingBytes);
+            intervalStart = now;
+            writtenBytes = 0;
+            writeLatency.reset();
+            queueLatency.reset();
+            writeBytes.reset();
+            messagesPerWrite.reset();
+            for (LogHistogram h : latencyByDepth) {
+                h.reset();
+            }
+            maxPendingMessages = 0; // racy with the publisher, a lost max only affects one interval
+            return interval;
+        }
+    }
+
+    private void checkRealign() {
+        long to = realignTo;
+        if (to >= 0) {
+            realignTo = -1;
+            bufferedSeq = to;
+            writtenSeq = to;
+            bufferedMessages = 0;
+        }
+    }
+
+    private static int depthBucket(long depth) {
+        int ix = 0;
+        while (depth >= DEPTH_BOUNDS[ix] && ix < DEPTH_BOUNDS.length - 1) {
+            ix++;
+        }
+        return ix;
+    }
+}
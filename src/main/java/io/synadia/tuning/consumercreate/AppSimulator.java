@@ -18,12 +18,18 @@ import static io.synadia.utils.MiscUtils.reportEx;
 public class AppSimulator extends Thread {
     private final Settings settings;
     private final int appId;
+    private final long startNanos;
     public final ConsumerAndSubscriber[] conAndSubs;
+    public final CreateWindow createWindow; // shared by the threads on this app's connection
 
-    public AppSimulator(Settings settings, int id) {
+    public AppSimulator(Settings settings, int id, long startNanos) {
         this.settings = settings;
         this.appId = id;
+        this.startNanos = startNanos;
         conAndSubs = new ConsumerAndSubscriber[settings.threadsPerApp];
+        createWindow = settings.appStrategy == AppStrategy.Adaptive_Create
+            ? CreateWindow.adaptive(settings)
+            : CreateWindow.fixed(settings.createWindow);
     }
 
     @Override
@@ -39,8 +45,8 @@ public class AppSimulator extends Thread {
             int consumersEach = settings.consumersPerApp / settings.threadsPerApp;
             Thread[] threads = new Thread[settings.threadsPerApp];
             for (int tid = 0; tid < threads.length; tid++) {
-                conAndSubs[tid] = new ConsumerAndSubscriber(settings, jsm, js, d, consumersEach, appId, tid);
-                threads[tid] = new Thread(conAndSubs[tid]);
+                conAndSubs[tid] = new ConsumerAndSubscriber(settings, nc, jsm, js, d, createWindow, consumersEach, appId, tid, startNanos);
+                threads[tid] = settings.threadMode.newThread("App" + appId + "-Thread" + tid, conAndSubs[tid]);
                 threads[tid].start();
             }
             for (int i = 0; i < threads.length; i++) {
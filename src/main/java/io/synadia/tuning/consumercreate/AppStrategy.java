@@ -13,5 +13,7 @@ public enum AppStrategy {
     Individual_Immediately,
     Individual_After_Creates,
     Client_Api_Subscribe,
-    Create_Consumer_Only
+    Create_Consumer_Only,
+    Pipelined_Create,
+    Adaptive_Create
 }
@@ -0,0 +1,79 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.consumercreate;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per second buckets of completions, the count, the latency total and the longest latency, since the start of a run.
+ * Each thread has its own. Recording is lock-free, since pipelined completions come from the connection's threads.
+ * The buckets are allocated a minute at a time when first used, so thousands of threads that are only busy
+ * for a few seconds don't each hold an hour of buckets. Completions after the max seconds go in the last bucket.
+ */
+public class CompletionTimeline {
+    static final int CHUNK_SECONDS = 60;
+    static final int COUNT = 0;
+    static final int LATENCY_TOTAL = 1;
+    static final int LATENCY_MAX = 2;
+    static final int FIELDS = 3;
+
+    private final long startNanos;
+    private final int maxSeconds;
+    private final AtomicReferenceArray<AtomicLongArray> chunks;
+
+    public CompletionTimeline(long startNanos, int maxSeconds) {
+        this.startNanos = startNanos;
+        this.maxSeconds = Math.max(1, maxSeconds);
+        chunks = new AtomicReferenceArray<>((this.maxSeconds + CHUNK_SECONDS - 1) / CHUNK_SECONDS);
+    }
+
+    public void record(long nowNanos, long latencyNanos) {
+        int second = (int)Math.max(0, Math.min(maxSeconds - 1, (nowNanos - startNanos) / 1_000_000_000L));
+        int cx = second / CHUNK_SECONDS;
+        AtomicLongArray chunk = chunks.get(cx);
+        if (chunk == null) {
+            chunks.compareAndSet(cx, null, new AtomicLongArray(CHUNK_SECONDS * FIELDS));
+            chunk = chunks.get(cx);
+        }
+        int ix = (second % CHUNK_SECONDS) * FIELDS;
+        chunk.incrementAndGet(ix + COUNT);
+        chunk.addAndGet(ix + LATENCY_TOTAL, latencyNanos);
+        chunk.accumulateAndGet(ix + LATENCY_MAX, latencyNanos, Math::max);
+    }
+
+    /**
+     * Add the buckets into per second totals, growing them as needed
+     * @param totals {count, latency total, latency max} per second
+     * @return the totals, the same array or a bigger one
+     */
+    public long[][] addTo(long[][] totals) {
+        for (int cx = 0; cx < chunks.length(); cx++) {
+            AtomicLongArray chunk = chunks.get(cx);
+            if (chunk == null) {
+                continue;
+            }
+            for (int s = 0; s < CHUNK_SECONDS; s++) {
+                int ix = s * FIELDS;
+                long count = chunk.get(ix + COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                int second = cx * CHUNK_SECONDS + s;
+                if (second >= totals.length) {
+                    long[][] grown = new long[second + 1][];
+                    System.arraycopy(totals, 0, grown, 0, totals.length);
+                    for (int g = totals.length; g < grown.length; g++) {
+                        grown[g] = new long[FIELDS];
+                    }
+                    totals = grown;
+                }
+                totals[second][COUNT] += count;
+                totals[second][LATENCY_TOTAL] += chunk.get(ix + LATENCY_TOTAL);
+                totals[second][LATENCY_MAX] = Math.max(totals[second][LATENCY_MAX], chunk.get(ix + LATENCY_MAX));
+            }
+        }
+        return totals;
+    }
+}
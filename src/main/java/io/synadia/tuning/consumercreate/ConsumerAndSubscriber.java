@@ -11,41 +11,54 @@ package io.synadia.tuning.consumercreate;
 
 import io.nats.client.*;
 import io.nats.client.api.ConsumerConfiguration;
+import io.nats.client.api.ConsumerCreateRequest;
+import io.nats.client.api.ConsumerInfo;
+import io.synadia.utils.LogHistogram;
 import io.synadia.utils.MiscUtils;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static io.nats.client.support.NatsJetStreamConstants.DEFAULT_API_PREFIX;
+import static io.nats.client.support.NatsJetStreamConstants.JSAPI_CONSUMER_CREATE_V290;
 
 import static io.synadia.utils.MiscUtils.sleep;
 
 public class ConsumerAndSubscriber implements Runnable {
     Settings settings;
+    Connection nc;
     JetStreamManagement jsm;
     JetStream js;
     Dispatcher d;
+    CreateWindow createWindow;
     int consumersEach;
     int appId;
     int threadId;
     public JetStreamSubscription[] subs;
-    public long[] createTime;
-    public long[] subscribeTime;
+    // nanos, recorded under this, the pipelined creates complete on the connection's threads
+    public final LogHistogram createTime = new LogHistogram();
+    public final LogHistogram subscribeTime = new LogHistogram();
+    public int createFailures;
+    public int subscribeFailures;
+    public final CompletionTimeline createTimeline;
+    public final CompletionTimeline subscribeTimeline;
 
-    public ConsumerAndSubscriber(Settings settings, JetStreamManagement jsm, JetStream js, Dispatcher d, int consumersEach, int appId, int threadId) {
+    public ConsumerAndSubscriber(Settings settings, Connection nc, JetStreamManagement jsm, JetStream js, Dispatcher d,
+                                 CreateWindow createWindow, int consumersEach, int appId, int threadId, long startNanos) {
         this.settings = settings;
+        this.nc = nc;
         this.jsm = jsm;
         this.js = js;
         this.d = d;
+        this.createWindow = createWindow;
         this.consumersEach = consumersEach;
         subs = new JetStreamSubscription[consumersEach];
-        createTime = new long[consumersEach];
-        subscribeTime = new long[consumersEach];
         this.appId = appId;
         this.threadId = threadId;
-
-        for (int conIx = 0; conIx < consumersEach; conIx++) {
-            createTime[conIx] = Long.MIN_VALUE;
-            subscribeTime[conIx] = Long.MIN_VALUE;
-        }
+        createTimeline = new CompletionTimeline(startNanos, settings.timelineMaxSeconds);
+        subscribeTimeline = new CompletionTimeline(startNanos, settings.timelineMaxSeconds);
     }
 
     public void close() {
@@ -89,6 +102,70 @@ public class ConsumerAndSubscriber implements Runnable {
                     createConsumer(conIx, getName(conIx));
                 }
                 break;
+
+            case Pipelined_Create:
+            case Adaptive_Create:
+                pipelinedCreate();
+                break;
+        }
+    }
+
+    /*
+        Sends the create requests without waiting for the responses, as long as the app's
+        window has room, so one thread can keep many creates in flight on the connection.
+        The responses complete on the connection's threads.
+     */
+    private void pipelinedCreate() {
+        CountDownLatch done = new CountDownLatch(consumersEach);
+        Duration timeout = Duration.ofMillis(settings.timeoutMs);
+        try {
+            for (int conIx = 0; conIx < consumersEach; conIx++) {
+                String name = getName(conIx);
+                ConsumerConfiguration cc = createConsumerConfiguration(name, conIx, settings.subStrategy.pull);
+                String subject = DEFAULT_API_PREFIX + String.format(JSAPI_CONSUMER_CREATE_V290, settings.streamName, name);
+                byte[] body = new ConsumerCreateRequest(settings.streamName, cc).serialize();
+                createWindow.acquire();
+                int finalConIx = conIx;
+                long start = System.nanoTime();
+                try {
+                    nc.requestWithTimeout(subject, body, timeout)
+                        .whenComplete((msg, t) -> {
+                            long elapsed = System.nanoTime() - start;
+                            boolean ok = createCompleted(finalConIx, name, elapsed, msg, t);
+                            createWindow.release(elapsed, !ok);
+                            done.countDown();
+                        });
+                }
+                catch (Exception e) {
+                    long elapsed = System.nanoTime() - start;
+                    createCompleted(conIx, name, elapsed, null, e);
+                    createWindow.release(elapsed, true);
+                    done.countDown();
+                }
+            }
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean createCompleted(int conIx, String name, long elapsed, Message msg, Throwable t) {
+        try {
+            if (t != null) {
+                throw t instanceof Exception ? (Exception)t : new RuntimeException(t);
+            }
+            new ConsumerInfo(msg).throwOnHasError();
+            recordCreate(elapsed);
+            if (conIx == 0 || conIx % settings.reportFrequency == 0) {
+                MiscUtils.report("Create Consumer | " + name + " | " + settings.time(elapsed) + settings.timeLabel());
+            }
+            return true;
+        }
+        catch (Exception e) {
+            MiscUtils.reportEx(e, "Create Consumer Exception " + name);
+            createFailed();
+            return false;
         }
     }
 
@@ -98,14 +175,16 @@ public class ConsumerAndSubscriber implements Runnable {
             long start = System.nanoTime();
             ConsumerConfiguration cc = createConsumerConfiguration(name, conIx, settings.subStrategy.pull);
             jsm.addOrUpdateConsumer(settings.streamName, cc);
-            createTime[conIx] = System.nanoTime() - start;
+            long elapsed = System.nanoTime() - start;
+            recordCreate(elapsed);
             if (conIx == 0 || conIx % settings.reportFrequency == 0) {
-                MiscUtils.report("Create Consumer | " + name + " | " + settings.time(createTime[conIx]) + settings.timeLabel());
+                MiscUtils.report("Create Consumer | " + name + " | " + settings.time(elapsed) + settings.timeLabel());
             }
             return cc;
         }
         catch (Exception e) {
             MiscUtils.reportEx(e, "Create Consumer Exception " + name);
+            createFailed();
             return null;
         }
     }
@@ -142,25 +221,26 @@ public class ConsumerAndSubscriber implements Runnable {
                         PullSubscribeOptions.builder().configuration(cc).stream(settings.streamName).build());
                     break;
             }
-            subscribeTime[conIx] = System.nanoTime() - start;
+            long elapsed = System.nanoTime() - start;
+            recordSubscribe(elapsed);
             if (conIx == 0 || conIx % settings.reportFrequency == 0) {
                 System.out.println("-------------> " + name + " " + subs + " " + subs[conIx]);
                 if (name.equals(subs[conIx].getConsumerName())) {
-                    MiscUtils.report("Subscribe | " + name + " | " + settings.time(subscribeTime[conIx]) + settings.timeLabel());
+                    MiscUtils.report("Subscribe | " + name + " | " + settings.time(elapsed) + settings.timeLabel());
                 }
                 else {
-                    MiscUtils.report("Subscribe | " + name + " / " + subs[conIx].getConsumerName() + " | " + settings.time(subscribeTime[conIx]) + settings.timeLabel());
+                    MiscUtils.report("Subscribe | " + name + " / " + subs[conIx].getConsumerName() + " | " + settings.time(elapsed) + settings.timeLabel());
                 }
             }
         }
         catch (Exception e) {
             MiscUtils.reportEx(e, "Subscribe Exception " + name);
-            subscribeTime[conIx] = -1;
+            subscribeFailed();
         }
     }
 
     private void subscribeBind(int conIx, ConsumerConfiguration cc) {
-        if (cc == null || createTime[conIx] == -1) { // create failed, can't subscribe
+        if (cc == null) { // create failed, can't subscribe
             return;
         }
 
@@ -191,16 +271,40 @@ public class ConsumerAndSubscriber implements Runnable {
                     subs[conIx] = js.subscribe(null, PullSubscribeOptions.fastBind(settings.streamName, cc.getName()));
                     break;
             }
-            subscribeTime[conIx] = System.nanoTime() - start;
+            long elapsed = System.nanoTime() - start;
+            recordSubscribe(elapsed);
             if (conIx == 0 || conIx % settings.reportFrequency == 0) {
-                MiscUtils.report("SUB " + cc.getName() + " | " + settings.time(subscribeTime[conIx]) + settings.timeLabel());
+                MiscUtils.report("SUB " + cc.getName() + " | " + settings.time(elapsed) + settings.timeLabel());
             }
         }
         catch (Exception e) {
             MiscUtils.reportEx(e, "SUB EX " + cc.getName());
+            subscribeFailed();
+        }
+    }
+
+    private void recordCreate(long nanos) {
+        createTimeline.record(System.nanoTime(), nanos);
+        synchronized (this) {
+            createTime.record(nanos);
+        }
+    }
+
+    private synchronized void createFailed() {
+        createFailures++;
+    }
+
+    private void recordSubscribe(long nanos) {
+        subscribeTimeline.record(System.nanoTime(), nanos);
+        synchronized (this) {
+            subscribeTime.record(nanos);
         }
     }
 
+    private synchronized void subscribeFailed() {
+        subscribeFailures++;
+    }
+
     private String getName(int conIx) {
         return "App" + appId + "-Thread" + threadId + "-Id" + conIx;
     }
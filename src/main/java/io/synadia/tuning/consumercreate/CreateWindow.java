@@ -0,0 +1,130 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.consumercreate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How many consumer creates an app keeps in flight on its connection.
+ * A fixed window never changes. An adaptive window uses additive increase, multiplicative decrease:
+ * every create that completes in time grows the window by 1 / window, so about 1 per window of creates,
+ * and a create that failed, timed out or took longer than the latency factor times the fastest create
+ * seen (but at least the latency floor) shrinks it by the decrease factor.
+ * It shrinks at most once per the latency of the create that signalled it, since the creates
+ * in flight alongside it saw the same congestion.
+ */
+public class CreateWindow {
+    private final boolean adaptive;
+    private final int maxWindow;
+    private final double decreaseFactor;
+    private final double latencyFactor;
+    private final long latencyFloorNanos;
+    private final long startNanos = System.nanoTime();
+    private final List<long[]> trajectory = new ArrayList<>(); // {millis since start, window}
+
+    private double window;
+    private int inFlight;
+    private long fastest = Long.MAX_VALUE;
+    private long lastDecrease;
+    private int peak;
+    private int decreases;
+
+    private CreateWindow(boolean adaptive, int initialWindow, int maxWindow,
+                         double decreaseFactor, double latencyFactor, long latencyFloorMs) {
+        this.adaptive = adaptive;
+        this.maxWindow = Math.max(1, maxWindow);
+        this.decreaseFactor = decreaseFactor;
+        this.latencyFactor = latencyFactor;
+        latencyFloorNanos = latencyFloorMs * 1_000_000;
+        window = Math.max(1, Math.min(initialWindow, this.maxWindow));
+        lastDecrease = startNanos;
+        peak = (int)window;
+        trajectory.add(new long[]{0, peak});
+    }
+
+    public static CreateWindow fixed(int window) {
+        return new CreateWindow(false, window, window, 1, 0, 0);
+    }
+
+    public static CreateWindow adaptive(Settings settings) {
+        return new CreateWindow(true, settings.adaptiveInitialWindow, settings.adaptiveMaxWindow,
+            settings.adaptiveDecreaseFactor, settings.adaptiveLatencyFactor, settings.adaptiveLatencyFloorMs);
+    }
+
+    /**
+     * Wait for room in the window and take it
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int)window) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Give back the room a create took, with how it went
+     */
+    public synchronized void release(long latencyNanos, boolean failed) {
+        inFlight--;
+        if (adaptive) {
+            int before = (int)window;
+            long now = System.nanoTime();
+            if (!failed) {
+                fastest = Math.min(fastest, latencyNanos);
+            }
+            boolean congested = failed || latencyNanos > Math.max(fastest * latencyFactor, latencyFloorNanos);
+            if (congested) {
+                if (now - lastDecrease > latencyNanos) {
+                    window = Math.max(1, window * decreaseFactor);
+                    lastDecrease = now;
+                    decreases++;
+                }
+            }
+            else {
+                window = Math.min(maxWindow, window + 1 / window);
+            }
+            if ((int)window != before) {
+                peak = Math.max(peak, (int)window);
+                trajectory.add(new long[]{(now - startNanos) / 1_000_000, (int)window});
+            }
+        }
+        notifyAll();
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public synchronized int getWindow() {
+        return (int)window;
+    }
+
+    public synchronized int getPeak() {
+        return peak;
+    }
+
+    public synchronized int getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * The window at every step from the start until the last change, as "seconds:window" pairs
+     */
+    public synchronized String trajectory(long stepMillis) {
+        StringBuilder sb = new StringBuilder();
+        long end = trajectory.get(trajectory.size() - 1)[0];
+        int ix = 0;
+        for (long t = 0; t <= end + stepMillis - 1; t += stepMillis) {
+            while (ix + 1 < trajectory.size() && trajectory.get(ix + 1)[0] <= t) {
+                ix++;
+            }
+            if (sb.length() > 0) {
+                sb.append(" ");
+            }
+            sb.append(t / 1000.0).append("s:").append(trajectory.get(ix)[1]);
+        }
+        return sb.toString();
+    }
+}
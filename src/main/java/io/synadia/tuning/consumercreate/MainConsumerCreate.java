@@ -12,6 +12,7 @@ package io.synadia.tuning.consumercreate;
 import io.nats.client.*;
 import io.nats.client.api.StreamConfiguration;
 import io.synadia.utils.MiscUtils;
+import io.synadia.utils.PinningMonitor;
 import io.synadia.utils.UniqueSubjectGenerator;
 
 import java.time.Duration;
@@ -37,6 +38,8 @@ public class MainConsumerCreate {
             , AppStrategy.Individual_Immediately
             , AppStrategy.Individual_After_Creates
             , AppStrategy.Create_Consumer_Only
+            , AppStrategy.Pipelined_Create
+            , AppStrategy.Adaptive_Create
         };
 
         SubStrategy[] subStrategies = new SubStrategy[] {
@@ -86,7 +89,7 @@ public class MainConsumerCreate {
         writeCsv(reports, "C:\\temp\\create-consumer-report.csv");
     }
 
-    private static void cleanupAfterRun(Settings settings) {
+    static void cleanupAfterRun(Settings settings) {
         if (settings.cleanupAfterRun) {
             try (Connection nc = Nats.connect(settings.optionsBuilder.getBuilder().build())) {
                 JetStreamManagement jsm = nc.jetStreamManagement();
@@ -127,11 +130,17 @@ public class MainConsumerCreate {
             }
             Thread.sleep(settings.pauseAfterStartPublishingMs);
 
+            PinningMonitor pinning = null;
+            if (settings.detectPinning) {
+                pinning = new PinningMonitor(settings.pinningThresholdMs);
+                pinning.start();
+            }
+
             long start = System.nanoTime();
 
             AppSimulator[] apps = new AppSimulator[settings.appInstances];
             for (int appId = 0; appId < settings.appInstances; appId++) {
-                apps[appId] = new AppSimulator(settings, appId);
+                apps[appId] = new AppSimulator(settings, appId, start);
                 apps[appId].start();
             }
 
@@ -140,6 +149,9 @@ public class MainConsumerCreate {
             }
 
             long elapsed = System.nanoTime() - start;
+            if (pinning != null) {
+                pinning.close();
+            }
 
             for (Publisher p : publishers) {
                 p.go.set(false);
@@ -148,8 +160,14 @@ public class MainConsumerCreate {
                 p.join();
             }
 
-            Report r = new Report(title, settings, apps, elapsed);
+            Report r = new Report(title, settings, apps, elapsed, pinning);
             r.print(System.out);
+            if (settings.appStrategy == AppStrategy.Adaptive_Create) {
+                for (int appId = 0; appId < apps.length; appId++) {
+                    System.out.println("    App " + appId + " window: " + apps[appId].createWindow.trajectory(1000));
+                }
+                System.out.println();
+            }
             return r;
         }
         catch (Exception e) {
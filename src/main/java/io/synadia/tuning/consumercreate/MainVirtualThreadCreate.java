@@ -0,0 +1,65 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.consumercreate;
+
+import io.nats.client.Options;
+import io.synadia.utils.UniqueSubjectGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.synadia.tuning.consumercreate.Report.writeCsv;
+import static io.synadia.tuning.consumercreate.Report.writeTextReport;
+
+/*
+    Creates consumers from thousands of blocking threads at once, on platform threads and on virtual threads,
+    to compare create throughput and tail latency. Pinning of the virtual threads in the client's
+    blocking calls is recorded with JFR, the platform runs report none, as a baseline.
+ */
+public class MainVirtualThreadCreate {
+
+    public static void main(String[] args) throws Exception {
+        List<Report> reports = new ArrayList<>();
+        Settings settings = new Settings();
+
+        settings.optionsBuilder = () -> Options.builder().server("localhost:4222,localhost:5222,localhost:6222");
+        settings.appStrategy = AppStrategy.Create_Consumer_Only;
+        settings.subStrategy = SubStrategy.Pull_Provide_Stream; // pull, so the create has no deliver subject
+        settings.beforeCreateDelayMs = 0;
+        settings.timeoutMs = 180_000;
+        settings.inactiveThresholdMs = settings.timeoutMs * 2;
+        settings.detectPinning = true;
+
+        ThreadMode[] threadModes = new ThreadMode[] {
+            ThreadMode.Platform
+            , ThreadMode.Virtual
+        };
+
+        int[] concurrencies = new int[]{1000, 2000, 5000, 10_000}; // creator threads over all the apps
+        int consumersPerThread = 2;
+
+        for (int concurrency : concurrencies) {
+            for (ThreadMode tm : threadModes) {
+                settings.threadMode = tm;
+                settings.threadsPerApp = concurrency / settings.appInstances;
+                settings.consumersPerApp = settings.threadsPerApp * consumersPerThread;
+
+                String title = concurrency + " " + tm.name().toLowerCase() + " threads";
+                settings.streamName = title.replace(" ", "-");
+                settings.subjectGenerator = new UniqueSubjectGenerator();
+                settings.reportFrequency = consumersPerThread; // only the first create of each thread
+
+                Thread.sleep(1000);
+                Report r = MainConsumerCreate.run(title, settings);
+                if (r != null) {
+                    reports.add(r);
+                }
+                MainConsumerCreate.cleanupAfterRun(settings);
+            }
+        }
+
+        writeTextReport(reports, "C:\\temp\\virtual-thread-create-report.txt");
+        writeCsv(reports, "C:\\temp\\virtual-thread-create-report.csv");
+    }
+}
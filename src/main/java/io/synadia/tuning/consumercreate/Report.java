@@ -9,9 +9,11 @@
 
 package io.synadia.tuning.consumercreate;
 
+import io.synadia.utils.LogHistogram;
+import io.synadia.utils.PinningMonitor;
+
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 public class Report {
@@ -20,6 +22,10 @@ public class Report {
     public final List<String> descriptions;
     public final List<String> values;
     public int descriptionWidth;
+    public final String[] timelineHeader;
+    public final List<String[]> timeline = new ArrayList<>(); // one row per second
+    public final String[] latencyCurveHeader;
+    public final List<String[]> latencyCurve = new ArrayList<>(); // one row per step of consumers existing
 
     public static void writeTextReport(List<Report> reports, String fn) throws Exception {
         try (PrintStream ps = new PrintStream(fn)) {
@@ -62,49 +68,52 @@ public class Report {
                     ps.println(text);
                 }
             }
+
+            ps.println();
+            ps.println("Throughput Timeline");
+            printCsvRows(ps, reports, r0.timelineHeader, true);
+            ps.println();
+            ps.println("Create Latency By Consumers Existing");
+            printCsvRows(ps, reports, r0.latencyCurveHeader, false);
+        }
+    }
+
+    private static void printCsvRows(PrintStream ps, List<Report> reports, String[] header, boolean timeline) {
+        ps.println("Title," + String.join(",", header));
+        for (Report r : reports) {
+            for (String[] row : timeline ? r.timeline : r.latencyCurve) {
+                ps.println(r.title + "," + String.join(",", row));
+            }
         }
     }
 
-    public Report(String title, Settings settings, AppSimulator[] apps, long time) {
+    public Report(String title, Settings settings, AppSimulator[] apps, long time, PinningMonitor pinning) {
         this.title = title;
         sections = new ArrayList<>();
         descriptions = new ArrayList<>();
         values = new ArrayList<>();
 
-        long totalCons = 0;
-        long longestCon = 0;
-        long totalSub = 0;
-        long longestSub = 0;
-        int finishedCons = 0;
-        int finishedSubs = 0;
+        LogHistogram creates = new LogHistogram();
+        LogHistogram subscribes = new LogHistogram();
         int dnfCons = 0;
         int dnfSubs = 0;
-        List<Long> forMedianCons = new ArrayList<>();
-        List<Long> forMedianSubs = new ArrayList<>();
+        long[][] createSeconds = new long[0][];
+        long[][] subscribeSeconds = new long[0][];
         for (AppSimulator app : apps) {
             for (ConsumerAndSubscriber conAndSub : app.conAndSubs) {
-                for (int x = 0; x < conAndSub.createTime.length; x++) {
-                    if (conAndSub.createTime[x] == -1) {
-                        dnfCons++;
-                    }
-                    else if (conAndSub.createTime[x] != Long.MIN_VALUE) {
-                        finishedCons++;
-                        totalCons += conAndSub.createTime[x];
-                        longestCon = Math.max(longestCon, conAndSub.createTime[x]);
-                        forMedianCons.add(conAndSub.createTime[x]);
-                    }
-                    if (conAndSub.subscribeTime[x] == -1) {
-                        dnfSubs++;
-                    }
-                    else if (conAndSub.subscribeTime[x] != Long.MIN_VALUE) {
-                        finishedSubs++;
-                        totalSub += conAndSub.subscribeTime[x];
-                        longestSub = Math.max(longestSub, conAndSub.subscribeTime[x]);
-                        forMedianSubs.add(conAndSub.subscribeTime[x]);
-                    }
-                }
+                creates.add(conAndSub.createTime);
+                subscribes.add(conAndSub.subscribeTime);
+                dnfCons += conAndSub.createFailures;
+                dnfSubs += conAndSub.subscribeFailures;
+                createSeconds = conAndSub.createTimeline.addTo(createSeconds);
+                subscribeSeconds = conAndSub.subscribeTimeline.addTo(subscribeSeconds);
             }
         }
+        timelineHeader = new String[]{"Second", "Creates", "Subscribes", "Consumers Existing",
+            "Create Avg " + settings.timeLabel(), "Create Max " + settings.timeLabel()};
+        latencyCurveHeader = new String[]{"Consumers Existing Up To", "Creates",
+            "Create Avg " + settings.timeLabel(), "Create Max " + settings.timeLabel()};
+        timeline(settings, createSeconds, subscribeSeconds);
 
         String tl = settings.timeLabel();
 //        section("General");
@@ -126,44 +135,47 @@ public class Report {
         value("App Instances", settings.appInstances);
         value("Threads Per App", settings.threadsPerApp);
         value("Consumers Per App", settings.consumersPerApp);
+        value("Thread Mode", settings.threadMode);
+        value("Create Window", settings.appStrategy == AppStrategy.Pipelined_Create ? settings.createWindow : "");
 
-//        section("Time");
-//        value("Elapsed " + tl, settings.time(time));
+        section("Time");
+        value("Elapsed " + tl, settings.time(time));
+        value("Creates Per Second", time == 0 ? 0 : creates.getCount() * 1_000_000_000L / time);
 
-        section("Create Consumer");
-        if (forMedianCons.isEmpty()) {
-            value("Count");
-            value("Finished");
-            value("Did Not Finish");
-            value("Longest " + tl);
-            value("Average " + tl);
-            value("Median " + tl);
+        phase("Create Consumer", settings, creates, dnfCons);
+
+        section("Adaptive Window");
+        if (settings.appStrategy == AppStrategy.Adaptive_Create) {
+            int peak = 0;
+            long finalWindows = 0;
+            long decreases = 0;
+            for (AppSimulator app : apps) {
+                peak = Math.max(peak, app.createWindow.getPeak());
+                finalWindows += app.createWindow.getWindow();
+                decreases += app.createWindow.getDecreases();
+            }
+            value("Initial", settings.adaptiveInitialWindow);
+            value("Peak", peak);
+            value("Final Average", finalWindows / apps.length);
+            value("Decreases", decreases);
         }
         else {
-            value("Count", finishedCons + dnfCons);
-            value("Finished", finishedCons);
-            value("Did Not Finish", dnfCons);
-            value("Longest " + tl, settings.time(longestCon));
-            value("Average " + tl, settings.time(totalCons / finishedCons));
-            value("Median " + tl, settings.time(median(forMedianCons)));
+            value("Initial");
+            value("Peak");
+            value("Final Average");
+            value("Decreases");
         }
 
-        section("Subscribe");
-        if (forMedianSubs.isEmpty()) {
-            value("Count");
-            value("Finished");
-            value("Did Not Finish");
-            value("Longest " + tl);
-            value("Average " + tl);
-            value("Median " + tl);
-        }
-        else {
-            value("Count", finishedSubs + dnfSubs);
-            value("Finished", finishedSubs);
-            value("Did Not Finish", dnfSubs);
-            value("Longest " + tl, settings.time(longestSub));
-            value("Average " + tl, settings.time(totalSub / finishedSubs));
-            value("Median " + tl, settings.time(median(forMedianSubs)));
+        phase("Subscribe", settings, subscribes, dnfSubs);
+
+        if (pinning != null) {
+            section("Virtual Thread Pinning");
+            value("Pinned Count", pinning.getCount());
+            value("Pinned Max " + tl, settings.time(pinning.getDurations().getMax()));
+            List<String> sites = pinning.topSites(3);
+            for (int ix = 0; ix < 3; ix++) {
+                value("Pinned Site " + (ix + 1), ix < sites.size() ? sites.get(ix) : "");
+            }
         }
     }
 
@@ -195,16 +207,113 @@ public class Report {
                 out.println(text);
             }
         }
+        if (!timeline.isEmpty()) {
+            out.println("Throughput Timeline");
+            printRows(out, timelineHeader, timeline);
+        }
+        if (!latencyCurve.isEmpty()) {
+            out.println("Create Latency By Consumers Existing");
+            printRows(out, latencyCurveHeader, latencyCurve);
+        }
         out.println();
     }
 
-    private static long median(List<Long> list) {
-        Collections.sort(list);
-        if (list.size() % 2 == 0) {
-            return list.get(list.size() / 2 - 1);
+    private static void printRows(PrintStream out, String[] header, List<String[]> rows) {
+        int[] widths = new int[header.length];
+        for (int col = 0; col < header.length; col++) {
+            widths[col] = header[col].length();
+            for (String[] row : rows) {
+                widths[col] = Math.max(widths[col], row[col].length());
+            }
+        }
+        out.println("    " + line(header, widths));
+        for (String[] row : rows) {
+            out.println("    " + line(row, widths));
+        }
+    }
+
+    private static String line(String[] fields, int[] widths) {
+        StringBuilder sb = new StringBuilder();
+        for (int col = 0; col < fields.length; col++) {
+            if (col > 0) {
+                sb.append("  ");
+            }
+            sb.append(String.format("%" + widths[col] + "s", fields[col]));
+        }
+        return sb.toString();
+    }
+
+    /*
+        The consumers existing is the creates finished by the end of each second.
+        For the latency curve, each second's creates go in the step the count at the end of that second falls in.
+     */
+    private void timeline(Settings settings, long[][] createSeconds, long[][] subscribeSeconds) {
+        int seconds = Math.max(createSeconds.length, subscribeSeconds.length);
+        long total = 0;
+        for (long[] c : createSeconds) {
+            total += c[CompletionTimeline.COUNT];
+        }
+        int points = Math.max(1, settings.latencyCurvePoints);
+        long step = Math.max(1, (total + points - 1) / points);
+        long[][] curve = new long[points][CompletionTimeline.FIELDS];
+
+        long existing = 0;
+        for (int second = 0; second < seconds; second++) {
+            long[] c = second < createSeconds.length ? createSeconds[second] : new long[CompletionTimeline.FIELDS];
+            long subs = second < subscribeSeconds.length ? subscribeSeconds[second][CompletionTimeline.COUNT] : 0;
+            long count = c[CompletionTimeline.COUNT];
+            existing += count;
+            timeline.add(new String[]{
+                Integer.toString(second), Long.toString(count), Long.toString(subs), Long.toString(existing),
+                count == 0 ? "" : Long.toString(settings.time(c[CompletionTimeline.LATENCY_TOTAL] / count)),
+                count == 0 ? "" : Long.toString(settings.time(c[CompletionTimeline.LATENCY_MAX]))});
+            if (count > 0) {
+                long[] point = curve[(int)Math.min(points - 1, (existing - 1) / step)];
+                point[CompletionTimeline.COUNT] += count;
+                point[CompletionTimeline.LATENCY_TOTAL] += c[CompletionTimeline.LATENCY_TOTAL];
+                point[CompletionTimeline.LATENCY_MAX] = Math.max(point[CompletionTimeline.LATENCY_MAX], c[CompletionTimeline.LATENCY_MAX]);
+            }
+        }
+
+        for (int px = 0; px < points && total > 0; px++) {
+            long[] point = curve[px];
+            long count = point[CompletionTimeline.COUNT];
+            latencyCurve.add(new String[]{
+                Long.toString(Math.min(total, (px + 1) * step)), Long.toString(count),
+                count == 0 ? "" : Long.toString(settings.time(point[CompletionTimeline.LATENCY_TOTAL] / count)),
+                count == 0 ? "" : Long.toString(settings.time(point[CompletionTimeline.LATENCY_MAX]))});
+        }
+    }
+
+    private void phase(String section, Settings settings, LogHistogram h, int dnf) {
+        String tl = settings.timeLabel();
+        section(section);
+        if (h.getCount() == 0 && dnf == 0) {
+            value("Count");
+            value("Finished");
+            value("Did Not Finish");
+        }
+        else {
+            value("Count", h.getCount() + dnf);
+            value("Finished", h.getCount());
+            value("Did Not Finish", dnf);
+        }
+        if (h.getCount() == 0) {
+            value("Average " + tl);
+            value("P50 " + tl);
+            value("P90 " + tl);
+            value("P99 " + tl);
+            value("P99.9 " + tl);
+            value("Max " + tl);
+        }
+        else {
+            value("Average " + tl, settings.time((long)h.getMean()));
+            value("P50 " + tl, settings.time(h.getValueAtPercentile(50)));
+            value("P90 " + tl, settings.time(h.getValueAtPercentile(90)));
+            value("P99 " + tl, settings.time(h.getValueAtPercentile(99)));
+            value("P99.9 " + tl, settings.time(h.getValueAtPercentile(99.9)));
+            value("Max " + tl, settings.time(h.getMax()));
         }
-        int ix = list.size() / 2;
-        return (list.get(ix) + list.get(ix + 1)) / 2;
     }
 
     void section(String section) {
@@ -35,6 +35,15 @@ public class Settings {
     public int consumersPerApp = 100;
     public long beforeCreateDelayMs = 20;
     public long beforeSubDelayMs = 20;
+    public ThreadMode threadMode = ThreadMode.Platform; // what the creator threads of each app run on
+    public boolean detectPinning = false; // record virtual threads blocking while pinned, with JFR
+    public long pinningThresholdMs = 20; // the JFR default for jdk.VirtualThreadPinned
+    public int createWindow = 100; // Pipelined_Create, consumer creates in flight per app connection, no before create delay
+    public int adaptiveInitialWindow = 4; // Adaptive_Create, like Pipelined_Create but the window adapts, starting here
+    public int adaptiveMaxWindow = 1000;
+    public double adaptiveDecreaseFactor = 0.5; // the window is multiplied by this on a congestion signal
+    public double adaptiveLatencyFactor = 4; // a create this many times slower than the fastest is a congestion signal
+    public long adaptiveLatencyFloorMs = 50; // but never one faster than this
 
     public long inactiveThresholdMs = timeoutMs * 2;
     public AppStrategy appStrategy = AppStrategy.Client_Api_Subscribe;
@@ -44,6 +53,9 @@ public class Settings {
     public int payloadSize = 100;
     public int pauseAfterStartPublishingMs = 2000;
 
+    public int timelineMaxSeconds = 3600; // completions are counted per second up to here
+    public int latencyCurvePoints = 10; // create latency by consumers existing, in this many steps
+
     public int reportFrequency = 1;
     public float autoReportFactor = 0.2f;
 
@@ -0,0 +1,15 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.tuning.consumercreate;
+
+public enum ThreadMode {
+    Platform,
+    Virtual;
+
+    public Thread newThread(String name, Runnable r) {
+        return this == Virtual
+            ? Thread.ofVirtual().name(name).unstarted(r)
+            : Thread.ofPlatform().name(name).unstarted(r);
+    }
+}
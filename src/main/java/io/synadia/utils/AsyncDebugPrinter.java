@@ -0,0 +1,207 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import io.nats.client.Message;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Debug printer that keeps logging off the calling thread. Debug.log puts the raw arguments,
+ * the time and the thread name into a slot of a ring that is allocated up front, and a background
+ * thread builds the line and prints it to the target printer. The caller never formats, never takes
+ * the System.out lock and never waits: when the ring is full the entry is dropped and counted,
+ * and the count is printed once there is room again.
+ * Since the arguments are formatted later, pass values, not objects that change after the call.
+ */
+public class AsyncDebugPrinter implements Debug.DebugPrinter, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private static class Entry {
+        volatile long sequence;
+        long millis;
+        String threadName;
+        String label;
+        Message msg;
+        boolean forMsg;
+        Object[] extras;
+        boolean skipFirst;
+        String line; // already formatted, from println
+
+        void clear() {
+            threadName = null;
+            label = null;
+            msg = null;
+            extras = null;
+            line = null;
+        }
+    }
+
+    private final Debug.DebugPrinter target;
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong tail;  // the next position a producer claims
+    private volatile long head;     // the next position the printer thread prints, only written by it
+    private final LongAdder dropped;
+    private long reportedDropped;   // only touched by the printer thread
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param target where the formatted lines go, for instance System.out::println
+     * @param capacity the number of entries in the ring, rounded up to a power of 2
+     */
+    public AsyncDebugPrinter(Debug.DebugPrinter target, int capacity) {
+        this.target = target;
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        ring = new Entry[size];
+        for (int ix = 0; ix < size; ix++) {
+            ring[ix] = new Entry();
+            ring[ix].sequence = ix;
+        }
+        mask = size - 1;
+        tail = new AtomicLong();
+        dropped = new LongAdder();
+        thread = new Thread(this::printLoop, "debug-printer");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public Debug.DebugPrinter getTarget() {
+        return target;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void println(String s) {
+        if (!offer(0, null, null, null, false, null, false, s)) {
+            target.println(s);
+        }
+    }
+
+    /**
+     * Queue a Debug.log call to be formatted on the printer thread
+     * @return true if the entry was queued or dropped, false if the caller has to print it,
+     * which is when the printer is closed or the caller is the printer thread itself
+     */
+    boolean offer(long millis, String threadName, String label, Message msg, boolean forMsg, Object[] extras, boolean skipFirst) {
+        return offer(millis, threadName, label, msg, forMsg, extras, skipFirst, null);
+    }
+
+    private boolean offer(long millis, String threadName, String label, Message msg, boolean forMsg, Object[] extras, boolean skipFirst, String line) {
+        if (!running || Thread.currentThread() == thread) {
+            return false;
+        }
+        long pos = tail.get();
+        while (true) {
+            Entry e = ring[(int)(pos & mask)];
+            long seq = e.sequence;
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    e.millis = millis;
+                    e.threadName = threadName;
+                    e.label = label;
+                    e.msg = msg;
+                    e.forMsg = forMsg;
+                    e.extras = extras;
+                    e.skipFirst = skipFirst;
+                    e.line = line;
+                    e.sequence = pos + 1; // publishes the fields to the printer thread
+                    return true;
+                }
+                pos = tail.get();
+            }
+            else if (seq < pos) {
+                // the slot still holds the entry from one lap ago, the ring is full
+                dropped.increment();
+                return true;
+            }
+            else {
+                pos = tail.get(); // another producer claimed it
+            }
+        }
+    }
+
+    /**
+     * Wait until everything queued before the call is printed
+     */
+    public void flush() {
+        long until = tail.get();
+        while (head < until && thread.isAlive()) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Stop taking entries, print what is queued and stop the printer thread
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain(); // anything queued by a producer that got in just before running went false
+    }
+
+    private void printLoop() {
+        while (running) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        drain();
+    }
+
+    private boolean drain() {
+        boolean printed = false;
+        long pos = head;
+        while (true) {
+            Entry e = ring[(int)(pos & mask)];
+            if (e.sequence != pos + 1) {
+                break;
+            }
+            try {
+                if (e.line == null) {
+                    Debug.print(target, e.millis, e.threadName, e.label, e.msg, e.forMsg, e.extras, e.skipFirst);
+                }
+                else {
+                    target.println(e.line);
+                }
+            }
+            catch (Exception x) {
+                target.println("Debug entry could not be printed: " + x);
+            }
+            e.clear();
+            e.sequence = pos + ring.length; // free for the producer one lap ahead
+            head = ++pos;
+            printed = true;
+        }
+        long d = dropped.sum();
+        if (d > reportedDropped) {
+            target.println("[debug-printer] " + (d - reportedDropped) + " log entries dropped, the ring of " + ring.length + " was full");
+            reportedDropped = d;
+        }
+        return printed;
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import io.nats.client.Connection;
+import io.nats.client.impl.Headers;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes through a connection, but holds the publisher back before the outgoing queue is full,
+ * instead of finding out from a full queue exception or a slow consumer after the fact.
+ * <ul>
+ * <li>None - publish right away, the same as the connection</li>
+ * <li>Block - once pending messages reach the high water mark, wait until they drain to the low water mark</li>
+ * <li>Slow - between the low and high water marks, pause before each publish, longer the fuller the queue is,
+ * and block like Block at the high water mark</li>
+ * </ul>
+ * A wait never takes longer than the max wait, after that the message is published anyway,
+ * so a publisher is not held forever by a connection that is down.
+ * Waiting is time the message did not spend in the queue, so latency measured from the intended
+ * send time still includes it. Only one thread may publish through an instance.
+ */
+public class BackpressurePublisher {
+    public static final long MAX_SLOW_NANOS = 1_000_000;
+    private static final long POLL_NANOS = 50_000;
+
+    public enum Mode {
+        None,
+        Block,
+        Slow;
+
+        public static Mode parse(String s) {
+            for (Mode m : values()) {
+                if (m.name().equalsIgnoreCase(s.trim())) {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException("Unknown backpressure mode: " + s);
+        }
+    }
+
+    private final Connection connection;
+    private final Mode mode;
+    private final long highMessages;
+    private final long lowMessages;
+    private final long maxWaitNanos;
+
+    private long waits;
+    private long waitNanos;
+    private long maxWaitSeen;
+    private long timeouts;
+
+    /**
+     * @param highMessages pending messages where publishing blocks
+     * @param lowMessages pending messages a block waits for, and where Slow starts pausing
+     */
+    public BackpressurePublisher(Connection connection, Mode mode, long highMessages, long lowMessages, long maxWaitMillis) {
+        if (lowMessages > highMessages) {
+            throw new IllegalArgumentException("The low water mark can't be above the high water mark.");
+        }
+        this.connection = connection;
+        this.mode = mode;
+        this.highMessages = highMessages;
+        this.lowMessages = lowMessages;
+        maxWaitNanos = maxWaitMillis * 1_000_000;
+    }
+
+    public void publish(String subject, Headers headers, byte[] data) {
+        await();
+        connection.publish(subject, headers, data);
+    }
+
+    public void publish(String subject, byte[] data) {
+        await();
+        connection.publish(subject, data);
+    }
+
+    /**
+     * Hold the caller back as the mode says
+     * @return the nanos waited, 0 if there was no need to
+     */
+    public long await() {
+        if (mode == Mode.None) {
+            return 0;
+        }
+        long pending = connection.outgoingPendingMessageCount();
+        if (pending < highMessages) {
+            if (mode == Mode.Block || pending <= lowMessages) {
+                return 0;
+            }
+            // Slow, scale the pause by how far the queue is between the marks
+            long pause = MAX_SLOW_NANOS * (pending - lowMessages) / Math.max(1, highMessages - lowMessages);
+            long start = System.nanoTime();
+            RatePacer.waitUntil(start + pause);
+            return waited(start, false);
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + maxWaitNanos;
+        while (connection.outgoingPendingMessageCount() > lowMessages) {
+            if (System.nanoTime() - deadline >= 0) {
+                return waited(start, true);
+            }
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+        return waited(start, false);
+    }
+
+    private long waited(long start, boolean timedOut) {
+        long w = System.nanoTime() - start;
+        waits++;
+        waitNanos += w;
+        maxWaitSeen = Math.max(maxWaitSeen, w);
+        if (timedOut) {
+            timeouts++;
+        }
+        return w;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * The number of publishes that were held back
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitSeen;
+    }
+
+    /**
+     * The number of waits that gave up at the max wait and published anyway
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+}
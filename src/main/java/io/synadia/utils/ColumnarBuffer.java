@@ -0,0 +1,101 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Rows of long values stored by column, one primitive array per column, so a row costs
+ * no objects and a long run holds nothing but its numbers. The arrays grow as rows are added,
+ * clear after writing them out to keep the buffer small.
+ */
+public class ColumnarBuffer {
+    private static final int INITIAL_ROWS = 1024;
+
+    private final String[] columns;
+    private long[][] data;
+    private int rows;
+
+    public ColumnarBuffer(String... columns) {
+        this.columns = columns;
+        data = new long[columns.length][INITIAL_ROWS];
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param values one value per column, in column order
+     */
+    public synchronized void addRow(long[] values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Row has " + values.length + " values for " + columns.length + " columns.");
+        }
+        if (rows == data[0].length) {
+            for (int cx = 0; cx < columns.length; cx++) {
+                data[cx] = Arrays.copyOf(data[cx], rows * 2);
+            }
+        }
+        for (int cx = 0; cx < columns.length; cx++) {
+            data[cx][rows] = values[cx];
+        }
+        rows++;
+    }
+
+    public synchronized int rows() {
+        return rows;
+    }
+
+    public synchronized long get(int column, int row) {
+        return data[column][row];
+    }
+
+    public synchronized void clear() {
+        rows = 0;
+    }
+
+    public void writeCsvHeader(Appendable out) throws IOException {
+        for (int cx = 0; cx < columns.length; cx++) {
+            if (cx > 0) {
+                out.append(',');
+            }
+            out.append(columns[cx]);
+        }
+        out.append('\n');
+    }
+
+    public synchronized void writeCsv(Appendable out) throws IOException {
+        for (int rx = 0; rx < rows; rx++) {
+            for (int cx = 0; cx < columns.length; cx++) {
+                if (cx > 0) {
+                    out.append(',');
+                }
+                out.append(Long.toString(data[cx][rx]));
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * One json object per row, keyed by column name
+     * @param type if not null, added to every object as "type"
+     */
+    public synchronized void writeJsonLines(Appendable out, String type) throws IOException {
+        for (int rx = 0; rx < rows; rx++) {
+            out.append('{');
+            if (type != null) {
+                out.append("\"type\":\"").append(type).append("\",");
+            }
+            for (int cx = 0; cx < columns.length; cx++) {
+                if (cx > 0) {
+                    out.append(',');
+                }
+                out.append('"').append(columns[cx]).append("\":").append(Long.toString(data[cx][rx]));
+            }
+            out.append("}\n");
+        }
+    }
+}
@@ -36,6 +36,11 @@ public abstract class Debug {
     public static final int RFC_TIME = 3;
     public static final int MILLIS_TIME = 4;
 
+    public static final int LEVEL_DEBUG = 1;
+    public static final int LEVEL_INFO = 2;
+    public static final int LEVEL_WARN = 3;
+    public static final int LEVEL_OFF = 4;
+
     public static String SEP = " | ";
     public static String PART_SEP = " / ";
     public static String DIV = "/";
@@ -47,6 +52,7 @@ public abstract class Debug {
     public static String DEFAULT_MESSAGE_LABEL = "MSG";
     public static boolean PAUSE = false;
     public static DebugPrinter DEBUG_PRINTER = System.out::println;
+    public static int LEVEL = LEVEL_INFO;
     public static int MAX_DATA_DISPLAY = 50;
 
     private Debug() {}  /* ensures cannot be constructed */
@@ -104,30 +110,98 @@ public abstract class Debug {
         }
     }
 
+    public static boolean isEnabled(int level) {
+        return !PAUSE && level >= LEVEL;
+    }
+
+    public static int parseLevel(String s) {
+        switch (s.trim().toLowerCase()) {
+            case "debug": return LEVEL_DEBUG;
+            case "info": return LEVEL_INFO;
+            case "warn": return LEVEL_WARN;
+            case "off": return LEVEL_OFF;
+        }
+        throw new IllegalArgumentException("Unknown log level: " + s);
+    }
+
+    /**
+     * Send logging to a background thread, see AsyncDebugPrinter. Does nothing if it already is.
+     */
+    public static synchronized void startAsync(int capacity) {
+        if (!(DEBUG_PRINTER instanceof AsyncDebugPrinter)) {
+            AsyncDebugPrinter async = new AsyncDebugPrinter(DEBUG_PRINTER, capacity);
+            async.start();
+            DEBUG_PRINTER = async;
+        }
+    }
+
+    /**
+     * Print everything queued and go back to logging on the calling thread. Does nothing if logging is not async.
+     */
+    public static synchronized void stopAsync() {
+        if (DEBUG_PRINTER instanceof AsyncDebugPrinter) {
+            AsyncDebugPrinter async = (AsyncDebugPrinter)DEBUG_PRINTER;
+            DEBUG_PRINTER = async.getTarget();
+            async.close();
+        }
+    }
+
+    public static void debug(String label, Object... extras) {
+        log(LEVEL_DEBUG, label, extras);
+    }
+
+    public static void warn(String label, Object... extras) {
+        log(LEVEL_WARN, label, extras);
+    }
+
     public static void log(String label, Object... extras) {
-        if (PAUSE) { return; }
+        log(LEVEL_INFO, label, extras);
+    }
+
+    public static void log(int level, String label, Object... extras) {
+        if (!isEnabled(level)) { return; }
         if (extras == null || extras.length == 0) {
-            log(label, null, false, null, false);
+            log(level, label, null, false, null, false);
         }
         else if (extras[0] instanceof NatsMessage) {
-            log(label, (NatsMessage)extras[0], true, extras, true);
+            log(level, label, (NatsMessage)extras[0], true, extras, true);
         }
         else {
-            log(label, null, false, extras, false);
+            log(level, label, null, false, extras, false);
         }
     }
 
     public static void log(String label, Message msg, boolean forMsg, Object[] extras, boolean skipFirst) {
-        if (PAUSE) { return; }
+        log(LEVEL_INFO, label, msg, forMsg, extras, skipFirst);
+    }
+
+    public static void log(int level, String label, Message msg, boolean forMsg, Object[] extras, boolean skipFirst) {
+        if (!isEnabled(level)) { return; }
+        DebugPrinter printer = DEBUG_PRINTER;
+        long millis = System.currentTimeMillis();
+        String threadName = Thread.currentThread().getName();
+        if (printer instanceof AsyncDebugPrinter
+            && ((AsyncDebugPrinter)printer).offer(millis, threadName, label, msg, forMsg, extras, skipFirst)) {
+            return;
+        }
+        print(printer, millis, threadName, label, msg, forMsg, extras, skipFirst);
+    }
+
+    /**
+     * Build the log line and print it, on the calling thread
+     * @param millis the time of the log call
+     * @param threadName the name of the thread that made the log call
+     */
+    public static void print(DebugPrinter printer, long millis, String threadName, String label, Message msg, boolean forMsg, Object[] extras, boolean skipFirst) {
         String start;
         if (TIME_TYPE > NO_TIME && PRINT_THREAD_ID) {
-            start = "[" + getThreadName() + "@" + time(TIME_TYPE) + "] ";
+            start = "[" + threadName(threadName) + "@" + time(TIME_TYPE, millis) + "] ";
         }
         else if (TIME_TYPE > NO_TIME) {
-            start = "[" + time(TIME_TYPE) + "] ";
+            start = "[" + time(TIME_TYPE, millis) + "] ";
         }
         else if (PRINT_THREAD_ID){
-            start = "[" + getThreadName() + "] ";
+            start = "[" + threadName(threadName) + "] ";
         }
         else {
             start = "";
@@ -155,25 +229,25 @@ public abstract class Debug {
 
         if (msg == null) {
             if (forMsg) {
-                DEBUG_PRINTER.println(label + "<nullmsg>" + extra);
+                printer.println(label + "<nullmsg>" + extra);
             }
             else {
-                DEBUG_PRINTER.println(label + extra);
+                printer.println(label + extra);
             }
             return;
         }
 
         if (msg.getSubject() == null) {
-            DEBUG_PRINTER.println(label + SEP + protocolMsgString(msg) + extra);
+            printer.println(label + SEP + protocolMsgString(msg) + extra);
             return;
         }
 
-        DEBUG_PRINTER.println(label + SEP + messageString(msg));
-        debugHdr(indent, msg);
+        printer.println(label + SEP + messageString(msg));
+        debugHdr(printer, indent, msg);
     }
 
-    private static String getThreadName() {
-        return Thread.currentThread().getName().replace("-thread-", "-");
+    private static String threadName(String name) {
+        return name.replace("-thread-", "-");
     }
 
     private static String messageString(Message msg) {
@@ -250,6 +324,15 @@ public abstract class Debug {
         return simpleTime();
     }
 
+    public static String time(int type, long javaTime) {
+        switch (type) {
+            case RFC_DATE_TIME: return rfcDateTime(ZonedDateTime.ofInstant(Instant.ofEpochMilli(javaTime), ZONE_ID_GMT));
+            case RFC_TIME: return rfcTime(ZonedDateTime.ofInstant(Instant.ofEpochMilli(javaTime), ZONE_ID_GMT));
+            case MILLIS_TIME: return "" + javaTime;
+            case SIMPLE_TIME: default: return simpleTime(javaTime);
+        }
+    }
+
     public static String time(int type) {
         switch (type) {
             case RFC_DATE_TIME: return rfcDateTime();
@@ -402,11 +485,15 @@ public abstract class Debug {
     }
 
     public static void debugHdr(int indent, Message msg) {
+        debugHdr(DEBUG_PRINTER, indent, msg);
+    }
+
+    private static void debugHdr(DebugPrinter printer, int indent, Message msg) {
         Headers h = msg.getHeaders();
         if (h != null && !h.isEmpty()) {
             String pad = PAD.substring(0, indent);
             for (String key : h.keySet()) {
-                DEBUG_PRINTER.println(pad + key + "=" + h.get(key));
+                printer.println(pad + key + "=" + h.get(key));
             }
         }
     }
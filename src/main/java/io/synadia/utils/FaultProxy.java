@@ -0,0 +1,496 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.synadia.utils.Debug.log;
+
+/**
+ * A TCP proxy in front of one server that can inject faults into the link.
+ * Every accepted client gets its own connection to the server and one pump thread per direction.
+ * Data is moved through direct buffers, so it never passes through the java heap.
+ * <ul>
+ * <li>Normal - relay everything</li>
+ * <li>Pause - stop relaying, data stays in the socket buffers until the pause ends, like a stalled network</li>
+ * <li>Blackhole - read and throw away everything in both directions</li>
+ * <li>Latency - relay every chunk once the latency has passed since it was read, in each direction, so round trips
+ * get twice the latency. Reading goes on while earlier chunks wait, so the latency does not limit the bandwidth.</li>
+ * <li>Bandwidth - limit each direction to the number of bytes per second</li>
+ * <li>Reset - reset every link and reset any new link until the mode changes, like a server that is down</li>
+ * </ul>
+ */
+public class FaultProxy implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DELAY_BUFFER_INITIAL = 1024 * 1024;
+    private static final int DELAY_BUFFER_MAX = 256 * 1024 * 1024;
+    private static final int DELAY_RELEASES = 8192;
+    private static final long DELAY_COALESCE_NANOS = 1_000_000;
+
+    public enum Mode {
+        Normal,
+        Pause,
+        Blackhole,
+        Latency,
+        Bandwidth,
+        Reset;
+
+        public static Mode parse(String s) {
+            for (Mode m : values()) {
+                if (m.name().equalsIgnoreCase(s.trim())) {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException("Unknown fault mode: " + s);
+        }
+    }
+
+    /**
+     * Told about every mode change, on the thread that made the change
+     */
+    public interface ModeListener {
+        void modeChanged(FaultProxy proxy, Mode mode);
+    }
+
+    private final String label;
+    private final InetSocketAddress target;
+    private final ServerSocketChannel server;
+    private final List<Link> links;
+    private final AtomicLong relayedBytes;
+    private final AtomicLong droppedBytes;
+
+    private volatile Mode mode = Mode.Normal;
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile boolean open = true;
+    private volatile ModeListener modeListener;
+
+    /**
+     * @param label used for logging and thread names
+     * @param targetUrl the server url, for instance nats://localhost:4222
+     */
+    public FaultProxy(String label, String targetUrl) throws IOException {
+        this.label = label;
+        URI uri = URI.create(targetUrl.trim());
+        target = new InetSocketAddress(uri.getHost(), uri.getPort() == -1 ? 4222 : uri.getPort());
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        links = new CopyOnWriteArrayList<>();
+        relayedBytes = new AtomicLong();
+        droppedBytes = new AtomicLong();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public String getUrl() {
+        return "nats://127.0.0.1:" + getPort();
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    public long getRelayedBytes() {
+        return relayedBytes.get();
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setModeListener(ModeListener modeListener) {
+        this.modeListener = modeListener;
+    }
+
+    public void start() {
+        Thread t = new Thread(this::acceptLoop, label + "-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void normal() {
+        setMode(Mode.Normal);
+    }
+
+    public void pause() {
+        setMode(Mode.Pause);
+    }
+
+    public void blackhole() {
+        setMode(Mode.Blackhole);
+    }
+
+    public void latency(long millis) {
+        latencyMillis = millis;
+        setMode(Mode.Latency);
+    }
+
+    public void bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(1, bytesPerSecond);
+        setMode(Mode.Bandwidth);
+    }
+
+    public void reset() {
+        setMode(Mode.Reset);
+        for (Link link : links) {
+            link.close(true);
+        }
+    }
+
+    /**
+     * Apply a mode by name with its argument, which is only used by latency (millis) and bandwidth (bytes per second)
+     */
+    public void apply(Mode m, long arg) {
+        switch (m) {
+            case Pause: pause(); break;
+            case Blackhole: blackhole(); break;
+            case Latency: latency(arg); break;
+            case Bandwidth: bandwidth(arg); break;
+            case Reset: reset(); break;
+            case Normal: default: normal(); break;
+        }
+    }
+
+    private void setMode(Mode m) {
+        mode = m;
+        log(label, "Fault Mode: %s  Target: %s  Links: %s", m, target, links.size());
+        ModeListener ml = modeListener;
+        if (ml != null) {
+            ml.modeChanged(this, m);
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        try {
+            server.close();
+        }
+        catch (IOException ignored) {}
+        for (Link link : links) {
+            link.close(false);
+        }
+    }
+
+    private void acceptLoop() {
+        while (open) {
+            try {
+                SocketChannel client = server.accept();
+                if (mode == Mode.Reset) {
+                    client.setOption(StandardSocketOptions.SO_LINGER, 0);
+                    client.close();
+                    continue;
+                }
+                SocketChannel upstream = SocketChannel.open(target);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Link link = new Link(client, upstream);
+                links.add(link);
+                link.start();
+            }
+            catch (IOException e) {
+                if (open) {
+                    log(label, "Accept failed", e);
+                }
+            }
+        }
+    }
+
+    class Link {
+        final SocketChannel client;
+        final SocketChannel upstream;
+        final List<DelayLine> delays = new CopyOnWriteArrayList<>();
+        volatile boolean closed;
+
+        Link(SocketChannel client, SocketChannel upstream) {
+            this.client = client;
+            this.upstream = upstream;
+        }
+
+        void start() {
+            int n = links.size();
+            Thread up = new Thread(() -> pump(client, upstream), label + "-" + n + "-up");
+            Thread down = new Thread(() -> pump(upstream, client), label + "-" + n + "-down");
+            up.setDaemon(true);
+            down.setDaemon(true);
+            up.start();
+            down.start();
+        }
+
+        void pump(SocketChannel from, SocketChannel to) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long nextFree = 0;
+            DelayLine delay = null; // made the first time this direction is in latency mode
+            try {
+                while (!closed) {
+                    buf.clear();
+                    int n = from.read(buf);
+                    if (n < 0) {
+                        break;
+                    }
+                    long readAt = System.nanoTime();
+                    buf.flip();
+
+                    while (mode == Mode.Pause && !closed) {
+                        MiscUtils.sleep(1);
+                    }
+
+                    Mode m = mode;
+                    if (m == Mode.Blackhole) {
+                        droppedBytes.addAndGet(n);
+                        continue;
+                    }
+                    if (m == Mode.Latency) {
+                        if (delay == null) {
+                            delay = new DelayLine(this, to);
+                            delays.add(delay);
+                            if (closed) {
+                                break;
+                            }
+                            delay.start(Thread.currentThread().getName() + "-delay");
+                        }
+                        delay.offer(buf, readAt, latencyMillis * 1_000_000);
+                        continue;
+                    }
+                    if (delay != null) {
+                        delay.awaitEmpty(); // what was delayed goes first
+                    }
+                    if (m == Mode.Bandwidth) {
+                        nextFree = Math.max(nextFree, System.nanoTime()) + n * 1_000_000_000L / bytesPerSecond;
+                        RatePacer.waitUntil(nextFree);
+                    }
+                    while (buf.hasRemaining()) {
+                        to.write(buf);
+                    }
+                    relayedBytes.addAndGet(n);
+                }
+            }
+            catch (IOException | InterruptedException ignored) {
+                // the other pump or a reset closed the link
+            }
+            close(false);
+        }
+
+        void close(boolean reset) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            links.remove(this);
+            for (DelayLine delay : delays) {
+                delay.close();
+            }
+            closeChannel(client, reset);
+            closeChannel(upstream, reset);
+        }
+
+        private void closeChannel(SocketChannel channel, boolean reset) {
+            try {
+                if (reset) {
+                    channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                }
+                channel.close();
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * One direction of a link in latency mode. The pump puts every chunk it reads in a direct ring and goes
+     * back to reading, the delay line's own thread writes the chunks out in order once their release time
+     * has passed. The ring grows as needed, up to the max, so it holds the bandwidth times the latency.
+     * Chunks read within a millisecond of the one before share its release time, which keeps the number of
+     * release times bounded by the latency and not by how small the reads are.
+     */
+    class DelayLine {
+        final Link link;
+        final SocketChannel to;
+        final long[] releaseEnds = new long[DELAY_RELEASES]; // total bytes put in when the release time was set
+        final long[] releaseAt = new long[DELAY_RELEASES];
+        ByteBuffer ring = ByteBuffer.allocateDirect(DELAY_BUFFER_INITIAL);
+        long put;  // total bytes put in
+        long sent; // total bytes written out
+        long lastReadAt;
+        int head;
+        int count;
+        boolean closed;
+
+        DelayLine(Link link, SocketChannel to) {
+            this.link = link;
+            this.to = to;
+        }
+
+        void start(String name) {
+            Thread t = new Thread(this::writeLoop, name);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        /**
+         * Called by the pump, waits if the ring or the release times are full
+         */
+        synchronized void offer(ByteBuffer src, long readAt, long delayNanos) throws InterruptedException {
+            int n = src.remaining();
+            boolean join = count > 0 && readAt - lastReadAt < DELAY_COALESCE_NANOS;
+            while (!closed && ((put - sent + n > ring.capacity() && !grow(put - sent + n)) || (!join && count == DELAY_RELEASES))) {
+                wait();
+                join = count > 0 && readAt - lastReadAt < DELAY_COALESCE_NANOS;
+            }
+            if (closed) {
+                return;
+            }
+            copy(src, ring, put);
+            put += n;
+            if (join) {
+                releaseEnds[(head + count - 1) % DELAY_RELEASES] = put;
+            }
+            else {
+                int ix = (head + count) % DELAY_RELEASES;
+                releaseEnds[ix] = put;
+                releaseAt[ix] = readAt + delayNanos;
+                lastReadAt = readAt;
+                count++;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Called by the pump, so nothing it writes directly overtakes what is still delayed
+         */
+        synchronized void awaitEmpty() throws InterruptedException {
+            while (!closed && sent < put) {
+                wait();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        private void writeLoop() {
+            try {
+                while (true) {
+                    ByteBuffer r;
+                    long from;
+                    long end;
+                    synchronized (this) {
+                        while (!closed && count == 0) {
+                            wait();
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        long now = System.nanoTime();
+                        long wait = releaseAt[head] - now;
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, wait);
+                            continue;
+                        }
+                        from = sent;
+                        end = sent;
+                        while (count > 0 && releaseAt[head] - now <= 0) {
+                            end = releaseEnds[head];
+                            head = (head + 1) % DELAY_RELEASES;
+                            count--;
+                        }
+                        r = ring;
+                    }
+                    // the pump only puts into the free part of the ring, so this part can be written unlocked
+                    for (ByteBuffer b : view(r, from, end)) {
+                        while (b.hasRemaining()) {
+                            to.write(b);
+                        }
+                    }
+                    relayedBytes.addAndGet(end - from);
+                    synchronized (this) {
+                        sent = end;
+                        notifyAll();
+                    }
+                }
+            }
+            catch (IOException | InterruptedException e) {
+                link.close(false);
+            }
+        }
+
+        private boolean grow(long needed) {
+            int capacity = ring.capacity();
+            while (capacity < needed && capacity < DELAY_BUFFER_MAX) {
+                capacity *= 2;
+            }
+            if (capacity < needed) {
+                return false;
+            }
+            // the writer may still be writing from the old ring, the bytes are the same in both
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            long at = sent;
+            for (ByteBuffer b : view(ring, sent, put)) {
+                int n = b.remaining();
+                copy(b, grown, at);
+                at += n;
+            }
+            ring = grown;
+            return true;
+        }
+    }
+
+    /**
+     * Copy the source into the ring at the position of a running byte count, wrapping at the end
+     */
+    private static void copy(ByteBuffer src, ByteBuffer ring, long at) {
+        int capacity = ring.capacity();
+        int pos = (int)(at % capacity);
+        int first = Math.min(src.remaining(), capacity - pos);
+        ByteBuffer dst = ring.duplicate();
+        dst.position(pos);
+        ByteBuffer part = src.duplicate();
+        part.limit(part.position() + first);
+        dst.put(part);
+        if (first < src.remaining()) {
+            dst.position(0);
+            part = src.duplicate();
+            part.position(src.position() + first);
+            dst.put(part);
+        }
+    }
+
+    /**
+     * The bytes of the ring between two running byte counts, one buffer or two if they wrap
+     */
+    private static ByteBuffer[] view(ByteBuffer ring, long from, long end) {
+        int capacity = ring.capacity();
+        int pos = (int)(from % capacity);
+        int n = (int)(end - from);
+        int first = Math.min(n, capacity - pos);
+        ByteBuffer a = ring.duplicate();
+        a.limit(pos + first).position(pos);
+        if (first == n) {
+            return new ByteBuffer[]{a};
+        }
+        ByteBuffer b = ring.duplicate();
+        b.limit(n - first).position(0);
+        return new ByteBuffer[]{a, b};
+    }
+}
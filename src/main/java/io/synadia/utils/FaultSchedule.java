@@ -0,0 +1,137 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static io.synadia.utils.ArgumentUtils.parseLong;
+
+/**
+ * A list of faults to apply to a set of proxies, parsed from a comma separated string of
+ * <code>server@startMillis:mode:durationMillis[:arg]</code>, for instance
+ * <code>0@5000:pause:2000,0@15000:reset:3000,1@20000:latency:5000:250</code>
+ * <ul>
+ * <li>server - the index of the server / proxy the fault applies to</li>
+ * <li>startMillis - when the fault starts, relative to the start of the schedule</li>
+ * <li>mode - pause, blackhole, latency, bandwidth or reset</li>
+ * <li>durationMillis - how long the fault lasts before the link goes back to normal</li>
+ * <li>arg - the latency in millis or the bandwidth in bytes per second</li>
+ * </ul>
+ * Numbers take the usual suffixes, for instance 5k millis or 1mi bytes per second.
+ */
+public class FaultSchedule {
+    public static class Fault {
+        public final int server;
+        public final long startMillis;
+        public final FaultProxy.Mode mode;
+        public final long durationMillis;
+        public final long arg;
+
+        public Fault(int server, long startMillis, FaultProxy.Mode mode, long durationMillis, long arg) {
+            this.server = server;
+            this.startMillis = startMillis;
+            this.mode = mode;
+            this.durationMillis = durationMillis;
+            this.arg = arg;
+        }
+
+        @Override
+        public String toString() {
+            String s = server + "@" + startMillis + ":" + mode + ":" + durationMillis;
+            return mode == FaultProxy.Mode.Latency || mode == FaultProxy.Mode.Bandwidth ? s + ":" + arg : s;
+        }
+    }
+
+    private final List<Fault> faults;
+
+    public FaultSchedule(List<Fault> faults) {
+        this.faults = Collections.unmodifiableList(new ArrayList<>(faults));
+    }
+
+    public static FaultSchedule parse(String spec) {
+        List<Fault> list = new ArrayList<>();
+        if (spec != null) {
+            for (String item : spec.split(",")) {
+                item = item.trim();
+                if (!item.isEmpty()) {
+                    list.add(parseFault(item));
+                }
+            }
+        }
+        return new FaultSchedule(list);
+    }
+
+    private static Fault parseFault(String item) {
+        int at = item.indexOf('@');
+        String[] parts = item.substring(at + 1).split(":");
+        if (at < 1 || parts.length < 3) {
+            throw new IllegalArgumentException("Fault must be server@startMillis:mode:durationMillis[:arg] - " + item);
+        }
+        FaultProxy.Mode mode = FaultProxy.Mode.parse(parts[1]);
+        long arg = parts.length > 3 ? parseLong(parts[3]) : 0;
+        if ((mode == FaultProxy.Mode.Latency || mode == FaultProxy.Mode.Bandwidth) && arg < 1) {
+            throw new IllegalArgumentException("Fault mode " + mode + " requires an arg - " + item);
+        }
+        return new Fault((int)parseLong(item.substring(0, at)), parseLong(parts[0]), mode, parseLong(parts[2]), arg);
+    }
+
+    public List<Fault> getFaults() {
+        return faults;
+    }
+
+    public boolean isEmpty() {
+        return faults.isEmpty();
+    }
+
+    /**
+     * Check every fault is for one of the servers and, if the schedule repeats, ends before it repeats
+     */
+    public void validate(int servers, long repeatMillis) {
+        for (Fault f : faults) {
+            if (f.server < 0 || f.server >= servers) {
+                throw new IllegalArgumentException("Fault server index out of range - " + f);
+            }
+            if (repeatMillis > 0 && f.startMillis + f.durationMillis >= repeatMillis) {
+                throw new IllegalArgumentException("Fault must end before the schedule repeats - " + f);
+            }
+        }
+    }
+
+    /**
+     * Schedule every fault and its end against the proxies, starting now
+     */
+    public void start(ScheduledExecutorService scheduler, List<FaultProxy> proxies) {
+        start(scheduler, proxies, 0);
+    }
+
+    /**
+     * Schedule every fault and its end against the proxies, starting now
+     * @param repeatMillis if greater than 0, the whole schedule is played again every repeatMillis
+     */
+    public void start(ScheduledExecutorService scheduler, List<FaultProxy> proxies, long repeatMillis) {
+        validate(proxies.size(), repeatMillis);
+        for (Fault f : faults) {
+            FaultProxy proxy = proxies.get(f.server);
+            Runnable apply = () -> proxy.apply(f.mode, f.arg);
+            long end = f.startMillis + f.durationMillis;
+            if (repeatMillis > 0) {
+                scheduler.scheduleAtFixedRate(apply, f.startMillis, repeatMillis, TimeUnit.MILLISECONDS);
+                scheduler.scheduleAtFixedRate(proxy::normal, end, repeatMillis, TimeUnit.MILLISECONDS);
+            }
+            else {
+                scheduler.schedule(apply, f.startMillis, TimeUnit.MILLISECONDS);
+                scheduler.schedule(proxy::normal, end, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return faults.toString();
+    }
+}
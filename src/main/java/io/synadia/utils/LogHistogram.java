@@ -0,0 +1,144 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear bucketed histogram of non-negative long values, in the style of HdrHistogram.
+ * Values below 128 are exact, above that each power of 2 is split into 64 buckets,
+ * so any reported value is within about 1.6% of the recorded value.
+ * Recording is lock-free for a single writer thread, any thread can read or merge.
+ */
+public class LogHistogram {
+    private static final int LINEAR_BITS = 7;
+    private static final int LINEAR = 1 << LINEAR_BITS;          // 128 exact buckets
+    private static final int SUB_BITS = LINEAR_BITS - 1;
+    private static final int SUB = 1 << SUB_BITS;                // 64 buckets per power of 2
+    private static final int BUCKETS = LINEAR + (63 - LINEAR_BITS) * SUB;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    public LogHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        total = new AtomicLong();
+        min = new AtomicLong(Long.MAX_VALUE);
+        max = new AtomicLong(0);
+    }
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     * Only one thread may record into a histogram.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int ix = bucket(value);
+        counts.lazySet(ix, counts.get(ix) + 1);
+        count.lazySet(count.get() + 1);
+        total.lazySet(total.get() + value);
+        if (value < min.get()) {
+            min.lazySet(value);
+        }
+        if (value > max.get()) {
+            max.lazySet(value);
+        }
+    }
+
+    /**
+     * Add the values of another histogram to this one. Not safe to call while
+     * another thread is recording into this histogram.
+     */
+    public void add(LogHistogram other) {
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            long c = other.counts.get(ix);
+            if (c != 0) {
+                counts.addAndGet(ix, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        total.addAndGet(other.total.get());
+        min.accumulateAndGet(other.min.get(), Math::min);
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Clear all values so the histogram can be used again. Not safe to call while
+     * another thread is recording into this histogram.
+     */
+    public void reset() {
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            counts.set(ix, 0);
+        }
+        count.set(0);
+        total.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMin() {
+        long c = count.get();
+        return c == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double)total.get() / c;
+    }
+
+    /**
+     * @param percentile 0 to 100, for instance 99.9
+     * @return the highest value equivalent to the bucket holding the percentile, never more than max
+     */
+    public long getValueAtPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(c * Math.min(100, percentile) / 100));
+        long running = 0;
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            running += counts.get(ix);
+            if (running >= target) {
+                return Math.min(highestEquivalent(ix), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int)value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        return LINEAR + (msb - LINEAR_BITS) * SUB + (int)((value >>> shift) - SUB);
+    }
+
+    static long highestEquivalent(int ix) {
+        if (ix < LINEAR) {
+            return ix;
+        }
+        int j = ix - LINEAR;
+        int msb = j / SUB + LINEAR_BITS;
+        long sub = j % SUB + SUB;
+        int shift = msb - SUB_BITS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import io.nats.client.Connection;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the outgoing queue of a connection, pending messages and bytes, on its own thread at a fixed interval,
+ * so queue pressure is seen while it builds and not only at the moments something else happens to look.
+ * The last samples are kept in a ring for percentiles over a recent window,
+ * and every sample goes into histograms for the whole run.
+ */
+public class OutgoingQueueSampler implements AutoCloseable {
+    public static class Window {
+        public final int samples;
+        public final long messagesP50;
+        public final long messagesP99;
+        public final long messagesMax;
+        public final long bytesP50;
+        public final long bytesP99;
+        public final long bytesMax;
+
+        Window(long[] messages, long[] bytes, int samples) {
+            this.samples = samples;
+            Arrays.sort(messages, 0, samples);
+            Arrays.sort(bytes, 0, samples);
+            messagesP50 = at(messages, samples, 50);
+            messagesP99 = at(messages, samples, 99);
+            messagesMax = samples == 0 ? 0 : messages[samples - 1];
+            bytesP50 = at(bytes, samples, 50);
+            bytesP99 = at(bytes, samples, 99);
+            bytesMax = samples == 0 ? 0 : bytes[samples - 1];
+        }
+
+        private static long at(long[] sorted, int samples, double percentile) {
+            if (samples == 0) {
+                return 0;
+            }
+            int ix = (int)Math.ceil(percentile / 100.0 * samples) - 1;
+            return sorted[Math.max(0, Math.min(samples - 1, ix))];
+        }
+
+        @Override
+        public String toString() {
+            return "pending msgs p50 " + messagesP50 + " p99 " + messagesP99 + " max " + messagesMax
+                + " | pending bytes p50 " + bytesP50 + " p99 " + bytesP99 + " max " + bytesMax;
+        }
+    }
+
+    private final String label;
+    private final Connection connection;
+    private final long intervalNanos;
+    private final long[] messages;
+    private final long[] bytes;
+    private final LogHistogram messagesHistogram;
+    private final LogHistogram bytesHistogram;
+    private long samples; // guarded by this
+    private Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param intervalMicros how often to sample
+     * @param windowSamples how many of the latest samples are kept for the window percentiles
+     */
+    public OutgoingQueueSampler(String label, Connection connection, long intervalMicros, int windowSamples) {
+        this.label = label;
+        this.connection = connection;
+        intervalNanos = Math.max(1, intervalMicros) * 1000;
+        messages = new long[Math.max(1, windowSamples)];
+        bytes = new long[messages.length];
+        messagesHistogram = new LogHistogram();
+        bytesHistogram = new LogHistogram();
+    }
+
+    public void start() {
+        thread = new Thread(this::sampleLoop, label + "-queue-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The percentiles over the latest samples
+     */
+    public synchronized Window window() {
+        int n = (int)Math.min(samples, messages.length);
+        return new Window(Arrays.copyOf(messages, n), Arrays.copyOf(bytes, n), n);
+    }
+
+    /**
+     * Pending messages over the whole run. Read it after close.
+     */
+    public LogHistogram getMessages() {
+        return messagesHistogram;
+    }
+
+    /**
+     * Pending bytes over the whole run. Read it after close.
+     */
+    public LogHistogram getBytes() {
+        return bytesHistogram;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void sampleLoop() {
+        long next = System.nanoTime();
+        while (running && connection.getStatus() != Connection.Status.CLOSED) {
+            long m = connection.outgoingPendingMessageCount();
+            long b = connection.outgoingPendingBytes();
+            messagesHistogram.record(m);
+            bytesHistogram.record(b);
+            synchronized (this) {
+                int ix = (int)(samples % messages.length);
+                messages[ix] = m;
+                bytes[ix] = b;
+                samples++;
+            }
+            next += intervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            else {
+                next = System.nanoTime(); // fell behind, don't try to catch up
+            }
+        }
+    }
+}
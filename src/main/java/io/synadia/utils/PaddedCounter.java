@@ -0,0 +1,49 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A counter for a single writer thread, padded so it sits on its own cache line and
+ * counters belonging to different threads do not contend. Any thread can read it.
+ * The padding is in super and sub classes since the JVM lays out super class fields first.
+ */
+public class PaddedCounter extends PaddedCounterValue {
+    @SuppressWarnings("unused")
+    long p11, p12, p13, p14, p15, p16, p17;
+
+    private static final AtomicLongFieldUpdater<PaddedCounterValue> UPDATER =
+        AtomicLongFieldUpdater.newUpdater(PaddedCounterValue.class, "value");
+
+    /**
+     * Add one. Only the owning thread may call this.
+     * @return the new value
+     */
+    public long increment() {
+        long v = value + 1;
+        UPDATER.lazySet(this, v);
+        return v;
+    }
+
+    /**
+     * Set the value. Only the owning thread may call this.
+     */
+    public void set(long v) {
+        UPDATER.lazySet(this, v);
+    }
+
+    public long get() {
+        return value;
+    }
+}
+
+abstract class PaddedCounterPad {
+    @SuppressWarnings("unused")
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class PaddedCounterValue extends PaddedCounterPad {
+    volatile long value;
+}
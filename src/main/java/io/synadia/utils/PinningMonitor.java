@@ -0,0 +1,91 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records, with a JFR stream in this JVM, every time a virtual thread blocked while pinned to its carrier
+ * for longer than the threshold, for instance parking inside a synchronized block.
+ * Each event is counted by its site, the first frame on the stack outside the JDK,
+ * which is the library or application call that blocked.
+ */
+public class PinningMonitor implements AutoCloseable {
+    public static final String EVENT = "jdk.VirtualThreadPinned";
+
+    private final RecordingStream stream;
+    private final LogHistogram durations = new LogHistogram(); // only the stream's thread records
+    private final Map<String, LongAdder> sites = new ConcurrentHashMap<>();
+
+    public PinningMonitor(long thresholdMillis) {
+        stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+        stream.onEvent(EVENT, this::pinned);
+    }
+
+    public void start() {
+        stream.startAsync();
+    }
+
+    /**
+     * Stops recording after the events recorded so far have been handled
+     */
+    @Override
+    public void close() {
+        stream.stop();
+        stream.close();
+    }
+
+    public long getCount() {
+        return durations.getCount();
+    }
+
+    /**
+     * How long the pinned threads were blocked, in nanos
+     */
+    public LogHistogram getDurations() {
+        return durations;
+    }
+
+    /**
+     * @return the sites with the most pinning first, as "count site"
+     */
+    public List<String> topSites(int max) {
+        List<Map.Entry<String, LongAdder>> entries = new ArrayList<>(sites.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+        List<String> top = new ArrayList<>();
+        for (int ix = 0; ix < entries.size() && ix < max; ix++) {
+            top.add(entries.get(ix).getValue().sum() + " " + entries.get(ix).getKey());
+        }
+        return top;
+    }
+
+    private void pinned(RecordedEvent e) {
+        durations.record(e.getDuration().toNanos());
+        sites.computeIfAbsent(site(e.getStackTrace()), k -> new LongAdder()).increment();
+    }
+
+    private static String site(RecordedStackTrace st) {
+        if (st == null) {
+            return "unknown";
+        }
+        for (RecordedFrame f : st.getFrames()) {
+            String type = f.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return type + "." + f.getMethod().getName() + ":" + f.getLineNumber();
+            }
+        }
+        return "jdk";
+    }
+}
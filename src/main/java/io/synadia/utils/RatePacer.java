@@ -0,0 +1,110 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop pacing. Every send has an intended time that comes only from the schedule,
+ * never from when the previous send finished, so a stalled publish does not move
+ * the schedule. When the caller falls behind, awaitNext returns immediately until
+ * it has caught up, and latency measured from the intended time includes the stall
+ * (no coordinated omission).
+ * Waiting parks until close to the intended time, then spins the last stretch,
+ * since parking alone can't hit intervals below about 100 microseconds.
+ * The intended times come from a WorkloadShape, the schedules are a constant rate.
+ */
+public class RatePacer {
+    public static final long SPIN_NANOS = 100_000;
+
+    public enum Schedule {
+        Fixed,
+        Poisson;
+
+        public static Schedule parse(String s) {
+            for (Schedule sch : values()) {
+                if (sch.name().equalsIgnoreCase(s.trim())) {
+                    return sch;
+                }
+            }
+            throw new IllegalArgumentException("Unknown schedule: " + s);
+        }
+    }
+
+    private final WorkloadShape shape;
+    private final LogHistogram lag;
+
+    private long startNanos;
+    private double nextOffset;
+    private long behind;
+
+    public RatePacer(long ratePerSecond, Schedule schedule) {
+        if (ratePerSecond < 1) {
+            throw new IllegalArgumentException("Rate must be at least 1 per second.");
+        }
+        shape = new WorkloadShape.Constant(ratePerSecond, schedule == Schedule.Poisson);
+        lag = new LogHistogram();
+    }
+
+    public RatePacer(WorkloadShape shape) {
+        this.shape = shape;
+        lag = new LogHistogram();
+    }
+
+    /**
+     * Start the schedule now. The first send is intended immediately, unless the shape starts idle.
+     * @return the start time in nanos
+     */
+    public long start() {
+        startNanos = System.nanoTime();
+        nextOffset = shape.firstOffset();
+        return startNanos;
+    }
+
+    /**
+     * Wait for the intended time of the next send.
+     * @return the intended time in nanos, which may be earlier than now if behind schedule
+     */
+    public long awaitNext() {
+        long intended = startNanos + (long)nextOffset;
+        waitUntil(intended);
+        long late = System.nanoTime() - intended;
+        if (late * shape.rateAt(nextOffset) > 1_000_000_000.0) {
+            behind++; // later than the interval at the current rate
+        }
+        lag.record(late);
+        nextOffset = shape.nextOffset(nextOffset);
+        return intended;
+    }
+
+    /**
+     * How late each send started compared to its intended time
+     */
+    public LogHistogram getLag() {
+        return lag;
+    }
+
+    /**
+     * The number of sends that started more than one interval after their intended time
+     */
+    public long getBehind() {
+        return behind;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public static void waitUntil(long deadlineNanos) {
+        long remaining = deadlineNanos - System.nanoTime();
+        while (remaining > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            remaining = deadlineNanos - System.nanoTime();
+        }
+        //noinspection StatementWithEmptyBody
+        while (System.nanoTime() - deadlineNanos < 0) {
+            // spin
+        }
+    }
+}
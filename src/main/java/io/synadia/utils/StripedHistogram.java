@@ -0,0 +1,63 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A histogram any number of threads can record into, for instance handlers on a pool or on virtual threads.
+ * Each thread records into the stripe picked by its identity hash, under that stripe's lock,
+ * so threads only contend when they share a stripe. The locks are not monitors,
+ * so a virtual thread waiting for one is not pinned to its carrier.
+ */
+public class StripedHistogram {
+    private final LogHistogram[] stripes;
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of 2
+     */
+    public StripedHistogram(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes) - 1) << 1;
+        n = Math.max(1, n);
+        this.stripes = new LogHistogram[n];
+        locks = new ReentrantLock[n];
+        for (int ix = 0; ix < n; ix++) {
+            this.stripes[ix] = new LogHistogram();
+            locks[ix] = new ReentrantLock();
+        }
+        mask = n - 1;
+    }
+
+    public void record(long value) {
+        int h = System.identityHashCode(Thread.currentThread());
+        int ix = (h ^ (h >>> 16)) & mask;
+        ReentrantLock lock = locks[ix];
+        lock.lock();
+        try {
+            stripes[ix].record(value);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the stripes merged into a new histogram
+     */
+    public LogHistogram snapshot() {
+        LogHistogram merged = new LogHistogram();
+        for (int ix = 0; ix < stripes.length; ix++) {
+            locks[ix].lock();
+            try {
+                merged.add(stripes[ix]);
+            }
+            finally {
+                locks[ix].unlock();
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,63 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+/**
+ * A bounded series of periodic samples, for instance messages per second.
+ * Once full, the oldest samples are dropped. Meant to be written by one sampling
+ * thread and read by reporting code, never from a hot path.
+ */
+public class TimeSeries {
+    private final long[] values;
+    private long added;
+    private long total;
+    private long peak;
+
+    public TimeSeries(int capacity) {
+        values = new long[capacity];
+    }
+
+    public synchronized void add(long value) {
+        values[(int)(added % values.length)] = value;
+        added++;
+        total += value;
+        if (value > peak) {
+            peak = value;
+        }
+    }
+
+    /**
+     * @return the number of samples still held, at most the capacity
+     */
+    public synchronized int size() {
+        return (int)Math.min(added, values.length);
+    }
+
+    /**
+     * @return the number of samples ever added
+     */
+    public synchronized long added() {
+        return added;
+    }
+
+    /**
+     * @param ix 0 is the oldest sample still held
+     */
+    public synchronized long get(int ix) {
+        long first = added - size();
+        return values[(int)((first + ix) % values.length)];
+    }
+
+    public synchronized long last() {
+        return added == 0 ? 0 : values[(int)((added - 1) % values.length)];
+    }
+
+    public synchronized long total() {
+        return total;
+    }
+
+    public synchronized long peak() {
+        return peak;
+    }
+}
@@ -0,0 +1,238 @@
+// Copyright (c) 2025 Synadia Communications Inc. All Rights Reserved.
+// See LICENSE and NOTICE file for details.
+
+package io.synadia.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The rate of a workload over time, which the RatePacer turns into intended send times.
+ * The rate can change over the run and can be 0, in which case the next send is at the next time it isn't.
+ * Arrivals are either evenly spaced at the current rate or Poisson, random gaps with the current rate as the mean.
+ * <ul>
+ * <li>Constant - the same rate the whole run</li>
+ * <li>OnOff - bursts at the rate for the on time, then nothing for the off time</li>
+ * <li>Diurnal - a cosine ramp from the min rate up to the max rate and back over the period</li>
+ * <li>Trace - the rates from a file of offsetMillis,rate lines, each held until the next line,
+ * the last line's offset is where the trace ends and starts over</li>
+ * </ul>
+ */
+public abstract class WorkloadShape {
+    public enum Type {
+        Constant,
+        Poisson,
+        OnOff,
+        Diurnal,
+        Trace;
+
+        public static Type parse(String s) {
+            for (Type t : values()) {
+                if (t.name().equalsIgnoreCase(s.trim())) {
+                    return t;
+                }
+            }
+            throw new IllegalArgumentException("Unknown workload shape: " + s);
+        }
+    }
+
+    private final boolean poisson;
+
+    protected WorkloadShape(boolean poisson) {
+        this.poisson = poisson;
+    }
+
+    /**
+     * @param offsetNanos the time since the start
+     * @return the rate per second at that time, 0 if nothing is sent then
+     */
+    public abstract double rateAt(double offsetNanos);
+
+    /**
+     * @return the first time at or after the offset when the rate isn't 0
+     */
+    protected double nextActive(double offsetNanos) {
+        return offsetNanos;
+    }
+
+    /**
+     * @return the offset of the first send
+     */
+    public double firstOffset() {
+        return rateAt(0) > 0 ? 0 : nextActive(0);
+    }
+
+    /**
+     * @param offsetNanos the offset of the send just made, when the rate isn't 0
+     * @return the offset of the next send
+     */
+    public double nextOffset(double offsetNanos) {
+        double mean = 1_000_000_000.0 / rateAt(offsetNanos);
+        double next = offsetNanos + (poisson ? -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * mean : mean);
+        return rateAt(next) > 0 ? next : nextActive(next);
+    }
+
+    public static class Constant extends WorkloadShape {
+        private final double rate;
+
+        public Constant(double rate, boolean poisson) {
+            super(poisson);
+            if (rate <= 0) {
+                throw new IllegalArgumentException("Rate must be more than 0.");
+            }
+            this.rate = rate;
+        }
+
+        @Override
+        public double rateAt(double offsetNanos) {
+            return rate;
+        }
+    }
+
+    public static class OnOff extends WorkloadShape {
+        private final double rate;
+        private final double onNanos;
+        private final double cycleNanos;
+
+        public OnOff(double rate, long onMillis, long offMillis, boolean poisson) {
+            super(poisson);
+            if (rate <= 0 || onMillis < 1 || offMillis < 0) {
+                throw new IllegalArgumentException("On off needs a rate, an on time of at least 1 millisecond and an off time.");
+            }
+            this.rate = rate;
+            onNanos = onMillis * 1_000_000.0;
+            cycleNanos = (onMillis + offMillis) * 1_000_000.0;
+        }
+
+        @Override
+        public double rateAt(double offsetNanos) {
+            return offsetNanos % cycleNanos < onNanos ? rate : 0;
+        }
+
+        @Override
+        protected double nextActive(double offsetNanos) {
+            return rateAt(offsetNanos) > 0 ? offsetNanos : (Math.floor(offsetNanos / cycleNanos) + 1) * cycleNanos;
+        }
+    }
+
+    public static class Diurnal extends WorkloadShape {
+        private final double minRate;
+        private final double maxRate;
+        private final double periodNanos;
+
+        public Diurnal(double minRate, double maxRate, long periodMillis, boolean poisson) {
+            super(poisson);
+            if (minRate <= 0 || maxRate < minRate || periodMillis < 1) {
+                throw new IllegalArgumentException("Diurnal needs a min rate more than 0, a max rate at least the min and a period.");
+            }
+            this.minRate = minRate;
+            this.maxRate = maxRate;
+            periodNanos = periodMillis * 1_000_000.0;
+        }
+
+        @Override
+        public double rateAt(double offsetNanos) {
+            return minRate + (maxRate - minRate) * (1 - Math.cos(2 * Math.PI * offsetNanos / periodNanos)) / 2;
+        }
+    }
+
+    public static class Trace extends WorkloadShape {
+        private final double[] startNanos;
+        private final double[] rates;
+        private final double lengthNanos;
+
+        /**
+         * @param offsetMillis when each rate starts, ascending, the last is the end of the trace
+         * @param rates the rate from each offset, the last one is not used
+         */
+        public Trace(long[] offsetMillis, double[] rates, boolean poisson) {
+            super(poisson);
+            if (offsetMillis.length < 2 || offsetMillis[0] != 0) {
+                throw new IllegalArgumentException("A trace needs a line at offset 0 and a line for its end.");
+            }
+            boolean any = false;
+            startNanos = new double[offsetMillis.length];
+            for (int ix = 0; ix < offsetMillis.length; ix++) {
+                if (ix > 0 && offsetMillis[ix] <= offsetMillis[ix - 1]) {
+                    throw new IllegalArgumentException("Trace offsets must be ascending, " + offsetMillis[ix] + " is not.");
+                }
+                startNanos[ix] = offsetMillis[ix] * 1_000_000.0;
+                any |= ix < offsetMillis.length - 1 && rates[ix] > 0;
+            }
+            if (!any) {
+                throw new IllegalArgumentException("A trace needs a rate more than 0.");
+            }
+            this.rates = rates;
+            lengthNanos = startNanos[startNanos.length - 1];
+        }
+
+        /**
+         * Read a trace file, one offsetMillis,rate per line. Empty lines and lines starting with # are skipped.
+         * @param scale every rate is multiplied by this, for instance to split the trace over publishers
+         */
+        public static Trace load(String file, double scale, boolean poisson) throws IOException {
+            List<String> lines = Files.readAllLines(Paths.get(file));
+            List<Long> offsets = new ArrayList<>();
+            List<Double> rates = new ArrayList<>();
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] split = line.split(",");
+                offsets.add(ArgumentUtils.parseLong(split[0].trim()));
+                rates.add(split.length > 1 ? Double.parseDouble(split[1].trim()) * scale : 0);
+            }
+            long[] o = new long[offsets.size()];
+            double[] r = new double[rates.size()];
+            for (int ix = 0; ix < o.length; ix++) {
+                o[ix] = offsets.get(ix);
+                r[ix] = rates.get(ix);
+            }
+            return new Trace(o, r, poisson);
+        }
+
+        @Override
+        public double rateAt(double offsetNanos) {
+            return rates[segment(offsetNanos % lengthNanos)];
+        }
+
+        @Override
+        protected double nextActive(double offsetNanos) {
+            double lap = Math.floor(offsetNanos / lengthNanos) * lengthNanos;
+            int ix = segment(offsetNanos - lap);
+            if (rates[ix] > 0) {
+                return offsetNanos;
+            }
+            while (true) {
+                ix++;
+                if (ix == rates.length - 1) {
+                    ix = 0;
+                    lap += lengthNanos;
+                }
+                if (rates[ix] > 0) {
+                    return lap + startNanos[ix];
+                }
+            }
+        }
+
+        private int segment(double inLap) {
+            int lo = 0;
+            int hi = startNanos.length - 2;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (startNanos[mid] <= inLap) {
+                    lo = mid;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+    }
+}